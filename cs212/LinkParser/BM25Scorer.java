@@ -0,0 +1,112 @@
+/**
+ * Scores matches with Okapi BM25. A word is weighted by how rare it is across
+ * the documents, and its frequency in a document counts for less the more
+ * often it appears and the longer the document is compared to the average.
+ *
+ * The weight of every possible document frequency and the length part of the
+ * formula for every document are put in to arrays when the scorer is
+ * created, once indexing has finished. Scoring a match is then two array
+ * reads and a division.
+ *
+ * @author Paul Hundal
+ *
+ */
+public class BM25Scorer implements Scorer {
+
+	/** How quickly repeating a word stops adding to the score. */
+	public static final float K1 = 1.2f;
+
+	/** How much the length of a document counts, from 0 to 1. */
+	public static final float B = 0.75f;
+
+	private final float k1;
+	private final float b;
+	private final float[] weights;
+	private final float[] norms;
+	private final int count;
+
+	/**
+	 * Creates a scorer with the usual parameters.
+	 *
+	 * @param documents
+	 *            documents with their lengths recorded
+	 */
+	public BM25Scorer(DocumentTable documents) {
+		this(documents, K1, B);
+	}
+
+	/**
+	 * Creates a scorer for the documents in the table as they are now.
+	 * Removed documents are not counted, even before their postings are
+	 * compacted.
+	 *
+	 * @param documents
+	 *            documents with their lengths recorded
+	 * @param k1
+	 *            term frequency saturation
+	 * @param b
+	 *            length normalization
+	 */
+	public BM25Scorer(DocumentTable documents, float k1, float b) {
+		this.k1 = k1;
+		this.b = b;
+
+		int[] lengths = documents.getLengths();
+		double average = documents.getAverageLength();
+		count = documents.liveSize();
+
+		norms = new float[lengths.length];
+		for (int i = 0; i < norms.length; i++) {
+			double relative = average > 0 ? lengths[i] / average : 1;
+			norms[i] = (float) (k1 * (1 - b + b * relative));
+		}
+
+		weights = new float[count + 1];
+		for (int frequency = 0; frequency <= count; frequency++) {
+			weights[frequency] = weight(frequency, count);
+		}
+	}
+
+	/**
+	 * Works out the inverse document frequency of a word, which is never
+	 * negative even for a word found in every document.
+	 *
+	 * @param frequency
+	 *            number of documents containing the word
+	 * @param count
+	 *            number of documents
+	 * @return weight of the word
+	 */
+	private static float weight(int frequency, int count) {
+		return (float) Math.log(1 + (count - frequency + 0.5)
+				/ (frequency + 0.5));
+	}
+
+	@Override
+	public float getTermWeight(int documentFrequency) {
+		if (documentFrequency < weights.length) {
+			return weights[documentFrequency];
+		}
+		return weight(documentFrequency, Math.max(count, documentFrequency));
+	}
+
+	@Override
+	public float score(float termWeight, int frequency, int document) {
+		float norm = document < norms.length ? norms[document] : k1;
+		return termWeight * frequency * (k1 + 1) / (frequency + norm);
+	}
+
+	/**
+	 * The frequency part of the formula only approaches <code>k1 + 1</code>,
+	 * so the bound is nudged up past any rounding of a very frequent word.
+	 */
+	@Override
+	public float getMaxScore(float termWeight) {
+		return Math.nextUp(termWeight * (k1 + 1));
+	}
+
+	@Override
+	public Scorer rebuild(DocumentTable documents) {
+		return new BM25Scorer(documents, k1, b);
+	}
+}
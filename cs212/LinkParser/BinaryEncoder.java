@@ -0,0 +1,103 @@
+import java.io.IOException;
+
+/**
+ * Exports an index or search results as length-prefixed binary records.
+ * Every number is a four byte big-endian integer, and every string is its
+ * length in bytes followed by its UTF-8 bytes. A word of an index is written
+ * as
+ *
+ * <pre>
+ * word, number of files, then for each file: path, number of positions, positions
+ * </pre>
+ *
+ * and a query line of search results as
+ *
+ * <pre>
+ * query, number of results, then for each result: path, frequency, position
+ * </pre>
+ *
+ * Records follow each other until the end of the file.
+ *
+ * @author Paul Hundal
+ *
+ */
+public class BinaryEncoder extends ExportEncoder {
+
+	@Override
+	protected void begin() {
+	}
+
+	@Override
+	protected void end() {
+	}
+
+	@Override
+	public void startWord(String word, int documents) throws IOException {
+		putString(word);
+		putInt(documents);
+	}
+
+	@Override
+	public void startDocument(String path, int positions) throws IOException {
+		putString(path);
+		putInt(positions);
+	}
+
+	@Override
+	public void addPosition(int position) throws IOException {
+		putInt(position);
+	}
+
+	@Override
+	public void endDocument() {
+	}
+
+	@Override
+	public void endWord() {
+	}
+
+	@Override
+	public void startQuery(String query, int results) throws IOException {
+		putString(query);
+		putInt(results);
+	}
+
+	@Override
+	public void addResult(String path, int frequency, int position)
+			throws IOException {
+		putString(path);
+		putInt(frequency);
+		putInt(position);
+	}
+
+	@Override
+	public void endQuery() {
+	}
+
+	/**
+	 * Writes a number.
+	 *
+	 * @param value
+	 * @throws IOException
+	 */
+	private void putInt(int value) throws IOException {
+		ensure(4);
+		buffer.putInt(value);
+	}
+
+	/**
+	 * Writes the length of a string in bytes followed by the string.
+	 *
+	 * @param text
+	 * @throws IOException
+	 */
+	private void putString(String text) throws IOException {
+		int length = utf8Length(text);
+		ensure(4 + length);
+		buffer.putInt(length);
+		int i = 0;
+		while (i < text.length()) {
+			i = putChar(text, i);
+		}
+	}
+}
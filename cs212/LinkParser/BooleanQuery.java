@@ -0,0 +1,309 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A query line read as a boolean query. Words are combined with the
+ * operators <code>AND</code>, <code>OR</code> and <code>NOT</code>, written
+ * in capitals. Words with no operator between them are joined by
+ * <code>OR</code>, so a plain query line finds the same documents as before.
+ * <code>AND</code> binds tighter than <code>OR</code>, and <code>NOT</code>
+ * removes the documents of the word after it from the group of words joined
+ * by <code>AND</code> that it is part of:
+ *
+ * <pre>
+ * apple banana           apple OR banana
+ * apple AND banana OR c  (apple AND banana) OR c
+ * apple NOT banana       apple AND NOT banana
+ * "quick brown" AND fox  the phrase quick brown, and fox
+ * </pre>
+ *
+ * Words between double quotes form a {@link PhraseQuery}, whose words are
+ * matched exactly and must appear next to each other.
+ *
+ * A group is found by walking the documents of its rarest word and jumping
+ * ahead in the other words with {@link Matches#advance(int, int)}. Once the
+ * matches of every word are known, intersecting them costs about as much as
+ * the rarest word instead of the sum of all of them. Getting those matches is
+ * not always that cheap: a word matched exactly, or a prefix matching only one
+ * word of the index, is read straight out of its postings, but a prefix
+ * matching several words has its postings added up by
+ * {@link SearchableIndex#getMatches(String, boolean)} first, which costs the
+ * sum of all of them. Without <code>-e</code> an <code>AND</code> of short
+ * prefixes therefore costs about as much as an <code>OR</code>.
+ *
+ * The frequency of a matched document is the sum over the words of its group,
+ * and its position is the earliest of them, the same totals a plain search
+ * adds up. Scores are added up the same way.
+ *
+ * @author Paul Hundal
+ *
+ */
+public class BooleanQuery {
+
+	public static final String AND = "AND";
+	public static final String OR = "OR";
+	public static final String NOT = "NOT";
+
+	private final ArrayList<Group> groups;
+
+	private BooleanQuery() {
+		groups = new ArrayList<Group>();
+	}
+
+	/**
+	 * Reads the words and operators of a query line. A group that starts
+	 * with <code>NOT</code> has nothing to remove documents from, so it never
+	 * matches.
+	 *
+	 * @param querywords
+	 *            words and operators of the line
+	 * @return parsed query
+	 */
+	public static BooleanQuery parse(ArrayList<String> querywords) {
+		BooleanQuery query = new BooleanQuery();
+		Group group = null;
+		boolean and = false;
+		boolean negate = false;
+
+		for (Term term : readTerms(querywords)) {
+			if (term.isOperator(AND)) {
+				and = true;
+			} else if (term.isOperator(OR)) {
+				and = false;
+			} else if (term.isOperator(NOT)) {
+				negate = true;
+			} else {
+				if (group == null || !and && !negate) {
+					group = new Group();
+					query.groups.add(group);
+				}
+				if (negate) {
+					group.excluded.add(term);
+				} else {
+					group.required.add(term);
+				}
+				and = false;
+				negate = false;
+			}
+		}
+		return query;
+	}
+
+	/**
+	 * Joins the words between double quotes in to phrases. A quote that is
+	 * never closed runs to the end of the line.
+	 *
+	 * @param querywords
+	 *            words and operators of the line
+	 * @return single words and phrases in order
+	 */
+	private static ArrayList<Term> readTerms(ArrayList<String> querywords) {
+		ArrayList<Term> terms = new ArrayList<Term>(querywords.size());
+		ArrayList<String> phrase = null;
+
+		for (String word : querywords) {
+			boolean close = false;
+			if (phrase == null && word.startsWith("\"")) {
+				phrase = new ArrayList<String>();
+				word = word.substring(1);
+			}
+			if (phrase != null && word.endsWith("\"")) {
+				word = word.substring(0, word.length() - 1);
+				close = true;
+			}
+
+			if (phrase == null) {
+				terms.add(new Term(new String[] { word }, false));
+				continue;
+			}
+			if (!word.isEmpty()) {
+				phrase.add(word);
+			}
+			if (close) {
+				addPhrase(terms, phrase);
+				phrase = null;
+			}
+		}
+		if (phrase != null) {
+			addPhrase(terms, phrase);
+		}
+		return terms;
+	}
+
+	/**
+	 * Adds a phrase to the terms, unless it has no words.
+	 *
+	 * @param terms
+	 * @param phrase
+	 */
+	private static void addPhrase(ArrayList<Term> terms,
+			ArrayList<String> phrase) {
+		if (!phrase.isEmpty()) {
+			terms.add(new Term(phrase.toArray(new String[phrase.size()]), true));
+		}
+	}
+
+	/**
+	 * Finds the documents matching the query.
+	 *
+	 * @param index
+	 *            index to search
+	 * @param exact
+	 *            <code>true</code> to match words exactly instead of as
+	 *            prefixes
+	 * @param limit
+	 *            largest number of results to return
+	 * @return sorted list of search results
+	 */
+	public ArrayList<SearchResults> search(SearchableIndex index,
+			boolean exact, int limit) {
+		DocumentTable documents = index.getDocuments();
+		SearchAccumulator tempResults = new SearchAccumulator(documents);
+
+		for (Group group : groups) {
+			group.search(index, exact, tempResults);
+		}
+		return tempResults.getResults(documents, limit);
+	}
+
+	/**
+	 * A single query word or a quoted phrase.
+	 */
+	private static class Term {
+		private final String[] words;
+		private final boolean phrase;
+
+		public Term(String[] words, boolean phrase) {
+			this.words = words;
+			this.phrase = phrase;
+		}
+
+		/**
+		 * Checks if the term is the given operator. A quoted operator is
+		 * searched for like any other word.
+		 *
+		 * @param operator
+		 * @return <code>true</code> if the term is the operator
+		 */
+		public boolean isOperator(String operator) {
+			return !phrase && words[0].equals(operator);
+		}
+
+		/**
+		 * Returns the documents matched by the term.
+		 *
+		 * @param index
+		 * @param exact
+		 *            <code>true</code> to match a single word exactly
+		 * @return matched documents
+		 */
+		public Matches getMatches(SearchableIndex index, boolean exact) {
+			if (phrase) {
+				return new PhraseQuery(words).getMatches(index);
+			}
+			return index.getMatches(words[0], exact);
+		}
+	}
+
+	/**
+	 * Terms that must all be found in a document, and terms that must not.
+	 */
+	private static class Group {
+		private final ArrayList<Term> required;
+		private final ArrayList<Term> excluded;
+
+		public Group() {
+			required = new ArrayList<Term>();
+			excluded = new ArrayList<Term>();
+		}
+
+		/**
+		 * Adds every document matching the group to the results.
+		 *
+		 * @param index
+		 * @param exact
+		 * @param tempResults
+		 */
+		public void search(SearchableIndex index, boolean exact,
+				SearchAccumulator tempResults) {
+			if (required.isEmpty()) {
+				return;
+			}
+
+			Matches[] lists = new Matches[required.size()];
+			for (int i = 0; i < lists.length; i++) {
+				lists[i] = required.get(i).getMatches(index, exact);
+			}
+			Arrays.sort(lists, new Comparator<Matches>() {
+				@Override
+				public int compare(Matches one, Matches two) {
+					return Integer.compare(one.size(), two.size());
+				}
+			});
+			if (lists[0].size() == 0) {
+				return;
+			}
+
+			Matches[] skip = new Matches[excluded.size()];
+			for (int i = 0; i < skip.length; i++) {
+				skip[i] = excluded.get(i).getMatches(index, exact);
+			}
+
+			intersect(lists, skip, tempResults);
+		}
+
+		/**
+		 * Walks the documents of the rarest list, which is first. Each other
+		 * list is moved up to the current document, and if one of them is
+		 * already past it the rarest list jumps ahead to that document
+		 * instead.
+		 *
+		 * @param lists
+		 *            matches of the required words, rarest first
+		 * @param skip
+		 *            matches of the excluded words
+		 * @param tempResults
+		 */
+		private static void intersect(Matches[] lists, Matches[] skip,
+				SearchAccumulator tempResults) {
+			Matches rarest = lists[0];
+			int[] offsets = new int[lists.length];
+			int[] skipOffsets = new int[skip.length];
+			int index = rarest.skip(0);
+
+			search: while (index < rarest.size()) {
+				int document = rarest.getDocument(index);
+				int frequency = rarest.getFrequency(index);
+				int position = rarest.getPosition(index);
+				float score = rarest.getScore(index);
+
+				for (int i = 1; i < lists.length; i++) {
+					offsets[i] = lists[i].advance(offsets[i], document);
+					if (offsets[i] == lists[i].size()) {
+						return;
+					}
+					int other = lists[i].getDocument(offsets[i]);
+					if (other != document) {
+						index = rarest.advance(index, other);
+						continue search;
+					}
+					frequency += lists[i].getFrequency(offsets[i]);
+					score += lists[i].getScore(offsets[i]);
+					position = Math.min(position,
+							lists[i].getPosition(offsets[i]));
+				}
+
+				index = rarest.skip(index + 1);
+				for (int i = 0; i < skip.length; i++) {
+					skipOffsets[i] = skip[i].advance(skipOffsets[i], document);
+					if (skipOffsets[i] < skip[i].size()
+							&& skip[i].getDocument(skipOffsets[i]) == document) {
+						continue search;
+					}
+				}
+				tempResults.add(document, frequency, position, score);
+			}
+		}
+	}
+}
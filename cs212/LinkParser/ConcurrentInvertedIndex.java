@@ -0,0 +1,277 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * An inverted index that many workers can add to at the same time. Words are
+ * kept in a {@link ConcurrentSkipListMap}, which stays sorted for prefix
+ * searches without a lock of its own, and the postings of each word are
+ * guarded by synchronizing on the {@link TermPostings} object. Two workers
+ * only wait for each other when they add the same word at the same moment,
+ * instead of every merge waiting on one write lock for the whole index.
+ *
+ * @author Paul Hundal
+ *
+ */
+public class ConcurrentInvertedIndex implements WritableIndex {
+
+	private static Logger log = LogManager.getLogger();
+
+	private final ConcurrentSkipListMap<String, TermPostings> invertedIndex;
+	private final DocumentTable documents;
+	private final AtomicLong generation;
+
+	public ConcurrentInvertedIndex() {
+		invertedIndex = new ConcurrentSkipListMap<String, TermPostings>();
+		documents = new DocumentTable();
+		generation = new AtomicLong();
+		log.info("Building my concurrent inverted index.");
+	}
+
+	@Override
+	public DocumentTable getDocuments() {
+		return documents;
+	}
+
+	/**
+	 * Returns the number of changes made so far. The generation goes up only
+	 * once a change is visible, so a search that read the generation before
+	 * the change finished caches its results under the older generation.
+	 */
+	@Override
+	public long getGeneration() {
+		return generation.get();
+	}
+
+	/**
+	 * Adds one position of a word, locking only the postings of that word.
+	 *
+	 * @param word
+	 * @param document
+	 * @param position
+	 */
+	public void addWord(String word, int document, int position) {
+		TermPostings postings = invertedIndex.get(word);
+		if (postings == null) {
+			TermPostings created = new TermPostings();
+			postings = invertedIndex.putIfAbsent(word, created);
+			if (postings == null) {
+				postings = created;
+			}
+		}
+		synchronized (postings) {
+			postings.add(document, position);
+		}
+		generation.incrementAndGet();
+	}
+
+	/**
+	 * Adds every word of the local index. A word that is new to this index
+	 * takes over the postings of the local index as they are, otherwise the
+	 * local postings are merged in while holding the lock of that one word.
+	 */
+	@Override
+	public void addAll(InvertedIndex localIndex) {
+		localIndex.visit(new TermVisitor() {
+			@Override
+			public void visit(String word, TermPostings postings) {
+				TermPostings existing = invertedIndex.putIfAbsent(word,
+						postings);
+				if (existing != null) {
+					synchronized (existing) {
+						existing.addAll(postings);
+					}
+				}
+			}
+		});
+		generation.incrementAndGet();
+	}
+
+	/**
+	 * The skip list is already sorted, so there is nothing to do once
+	 * indexing is finished.
+	 */
+	@Override
+	public void seal() {
+		log.debug("Concurrent index holds {} words.", invertedIndex.size());
+	}
+
+	@Override
+	public ArrayList<SearchResults> partialSearch(ArrayList<String> querywords,
+			int limit) {
+		SearchAccumulator tempResults = new SearchAccumulator(documents);
+
+		for (String word : querywords) {
+			partialSearch(word, tempResults);
+		}
+		return tempResults.getResults(documents, limit);
+	}
+
+	/**
+	 * Adds every document containing a word that starts with the query word to
+	 * the given results.
+	 *
+	 * @param word
+	 * @param tempResults
+	 */
+	private void partialSearch(String word, SearchAccumulator tempResults) {
+		for (Map.Entry<String, TermPostings> entry : invertedIndex
+				.tailMap(word).entrySet()) {
+			if (!entry.getKey().startsWith(word)) {
+				break;
+			}
+			TermPostings postings = entry.getValue();
+			synchronized (postings) {
+				tempResults.addAll(postings);
+			}
+		}
+	}
+
+	@Override
+	public ArrayList<SearchResults> partialSearch(ArrayList<String> querywords) {
+		return partialSearch(querywords, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public ArrayList<SearchResults> exactSearch(ArrayList<String> querywords,
+			int limit) {
+		SearchAccumulator tempResults = new SearchAccumulator(documents);
+
+		for (String word : querywords) {
+			exactSearch(word, tempResults);
+		}
+		return tempResults.getResults(documents, limit);
+	}
+
+	/**
+	 * Adds every document containing exactly the query word to the given
+	 * results.
+	 *
+	 * @param word
+	 * @param tempResults
+	 */
+	private void exactSearch(String word, SearchAccumulator tempResults) {
+		TermPostings postings = invertedIndex.get(word);
+		if (postings != null) {
+			synchronized (postings) {
+				tempResults.addAll(postings);
+			}
+		}
+	}
+
+	@Override
+	public ArrayList<SearchResults> exactSearch(ArrayList<String> querywords) {
+		return exactSearch(querywords, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Copies the matches of the word, since other workers may still be adding
+	 * to its postings.
+	 */
+	@Override
+	public Matches getMatches(String word, boolean exact) {
+		SearchAccumulator tempResults = new SearchAccumulator(documents);
+		if (exact) {
+			exactSearch(word, tempResults);
+		} else {
+			partialSearch(word, tempResults);
+		}
+		return tempResults.toMatchList();
+	}
+
+	@Override
+	public ArrayList<Matches> getTermMatches(String word, boolean exact) {
+		ArrayList<Matches> lists = new ArrayList<Matches>();
+		lists.add(getMatches(word, exact));
+		return lists;
+	}
+
+	@Override
+	public ArrayList<ArrayList<Matches>> getTermMatches(String[] words,
+			boolean exact) {
+		ArrayList<ArrayList<Matches>> lists = new ArrayList<ArrayList<Matches>>();
+		for (String word : words) {
+			lists.add(getTermMatches(word, exact));
+		}
+		return lists;
+	}
+
+	/**
+	 * Copies the postings of the word, since other workers may still be
+	 * adding to them.
+	 */
+	@Override
+	public TermPostings getPostings(String word) {
+		TermPostings postings = invertedIndex.get(word);
+		if (postings == null) {
+			return null;
+		}
+		TermPostings copy = new TermPostings();
+		synchronized (postings) {
+			copy.copyAll(postings);
+		}
+		return copy;
+	}
+
+	@Override
+	public void printMap(String filename) {
+		try (MapWriter outputMap = new MapWriter(filename, documents)) {
+			for (Map.Entry<String, TermPostings> entry : invertedIndex
+					.entrySet()) {
+				TermPostings postings = entry.getValue();
+				synchronized (postings) {
+					outputMap.writeWord(entry.getKey(), postings);
+				}
+			}
+		} catch (IOException e) {
+			System.out.println("Your text file " + filename
+					+ " cannot be accessed.");
+		}
+	}
+
+	@Override
+	public void exportMap(String filename, ExportEncoder encoder) {
+		int[] ranks = documents.getRanks();
+		try (ExportEncoder output = encoder.open(filename)) {
+			for (Map.Entry<String, TermPostings> entry : invertedIndex
+					.entrySet()) {
+				TermPostings postings = entry.getValue();
+				synchronized (postings) {
+					output.writeWord(entry.getKey(), postings, documents, ranks);
+				}
+			}
+		} catch (IOException e) {
+			System.out.println("Your text file " + filename
+					+ " cannot be accessed.");
+		}
+	}
+
+	/**
+	 * Writes the index to a binary segment. Should only be called once the
+	 * workers have finished adding to the index.
+	 */
+	@Override
+	public void saveSegment(String filename) {
+		ArrayList<String> words = new ArrayList<String>(invertedIndex.size());
+		ArrayList<TermPostings> postings = new ArrayList<TermPostings>(
+				invertedIndex.size());
+		for (Map.Entry<String, TermPostings> entry : invertedIndex.entrySet()) {
+			words.add(entry.getKey());
+			postings.add(entry.getValue());
+		}
+
+		try {
+			IndexSegment.write(new TermDictionary(words),
+					postings.toArray(new TermPostings[postings.size()]),
+					documents, filename);
+		} catch (IOException e) {
+			System.out.println("The index file " + filename
+					+ " could not be written out to.");
+		}
+	}
+}
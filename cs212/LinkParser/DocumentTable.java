@@ -0,0 +1,332 @@
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * Maps every file path and URL that gets indexed to a small integer document
+ * id. The index stores these ids instead of repeating the full path string for
+ * every word, and only turns them back in to paths when results are printed.
+ * Ids are handed out in the order documents are first seen, starting at zero,
+ * so they can be used directly as array offsets.
+ *
+ * The table also keeps the number of words in every document, and the
+ * {@link Scorer} used to rank searches over these documents, if any. Adding,
+ * removing or replacing a document marks the scorer as out of date, and it is
+ * rebuilt the next time a search asks for it.
+ *
+ * A document can be removed, which leaves a tombstone on its id. Ids are never
+ * handed out twice, so an index can keep the postings of a removed document
+ * until it gets around to compacting them, and searches skip them by checking
+ * {@link #isRemoved(int)}. A removed path that is added again gets a new id.
+ *
+ * @author Paul Hundal
+ *
+ */
+public class DocumentTable {
+
+	private final HashMap<String, Integer> ids;
+	private volatile String[] paths;
+	private int count;
+	private final Lock lock;
+	private int[] lengths;
+	private long totalLength;
+	private int removedCount;
+	private volatile BitSet removed;
+	private volatile Scorer scorer;
+	private volatile boolean changed;
+
+	public DocumentTable() {
+		ids = new HashMap<String, Integer>();
+		paths = new String[16];
+		count = 0;
+		lock = new Lock();
+		lengths = new int[16];
+		totalLength = 0;
+		removedCount = 0;
+		removed = null;
+		scorer = null;
+		changed = false;
+	}
+
+	/**
+	 * Returns the id of the given path, adding the path to the table if it has
+	 * not been seen before.
+	 *
+	 * @param path
+	 *            file path or URL of the document
+	 * @return document id
+	 */
+	public int getId(String path) {
+		lock.acquireReadLock();
+		Integer id = ids.get(path);
+		lock.releaseReadLock();
+
+		if (id == null) {
+			lock.acquireWriteLock();
+			id = ids.get(path);
+			if (id == null) {
+				id = append(path);
+				ids.put(path, id);
+				changed = true;
+			}
+			lock.releaseWriteLock();
+		}
+		return id;
+	}
+
+	/**
+	 * Returns the id of the given path without adding it.
+	 *
+	 * @param path
+	 *            file path or URL of the document
+	 * @return document id, or -1 if the path is not in the table or was
+	 *         removed
+	 */
+	public int lookup(String path) {
+		lock.acquireReadLock();
+		Integer id = ids.get(path);
+		lock.releaseReadLock();
+		return id != null ? id : -1;
+	}
+
+	/**
+	 * Gives the path a new id, so a new version of the document can be
+	 * indexed while the old one is still being searched. The old id keeps its
+	 * path and is left alone until it is removed.
+	 *
+	 * @param path
+	 *            file path or URL of the document
+	 * @return new document id
+	 */
+	public int renew(String path) {
+		lock.acquireWriteLock();
+		int id = append(path);
+		ids.put(path, id);
+		changed = true;
+		lock.releaseWriteLock();
+		return id;
+	}
+
+	/**
+	 * Leaves a tombstone on a document id and drops its length. The path is
+	 * dropped from the table too, unless it was already given a new id.
+	 *
+	 * @param id
+	 *            document id
+	 */
+	public void remove(int id) {
+		lock.acquireWriteLock();
+		BitSet bits = removed;
+		if (bits == null || !bits.get(id)) {
+			String path = paths[id];
+			Integer current = ids.get(path);
+			if (current != null && current == id) {
+				ids.remove(path);
+			}
+			if (id < lengths.length) {
+				totalLength -= lengths[id];
+				lengths[id] = 0;
+			}
+
+			bits = bits == null ? new BitSet() : (BitSet) bits.clone();
+			bits.set(id);
+			removed = bits;
+			removedCount++;
+			changed = true;
+		}
+		lock.releaseWriteLock();
+	}
+
+	/**
+	 * Checks if a document id was removed. Searches call this for every match,
+	 * so it reads a copy of the tombstones that is replaced rather than
+	 * changed, without taking the lock.
+	 *
+	 * @param id
+	 *            document id
+	 * @return <code>true</code> if the document was removed
+	 */
+	public boolean isRemoved(int id) {
+		BitSet bits = removed;
+		return bits != null && bits.get(id);
+	}
+
+	/**
+	 * Checks if any document was ever removed, so searches that never see a
+	 * tombstone do not have to check every match.
+	 *
+	 * @return <code>true</code> if a document was removed
+	 */
+	public boolean hasRemoved() {
+		return removed != null;
+	}
+
+	/**
+	 * Adds a path under the next id. Must be called while holding the write
+	 * lock. Paths are only ever appended, so the array is published again
+	 * after every append and readers never need the lock.
+	 *
+	 * @param path
+	 * @return id of the path
+	 */
+	private int append(String path) {
+		String[] array = paths;
+		if (count == array.length) {
+			array = Arrays.copyOf(array, count * 2);
+		}
+		array[count] = path;
+		paths = array;
+		return count++;
+	}
+
+	/**
+	 * Returns the path of the given document id. This is called for every
+	 * printed posting and every tie between results, so it reads the array
+	 * of paths without taking the lock.
+	 *
+	 * @param id
+	 *            document id
+	 * @return file path or URL of the document
+	 */
+	public String getPath(int id) {
+		return paths[id];
+	}
+
+	/**
+	 * Adds to the number of words in a document. A document that is parsed
+	 * more than once keeps every copy of its words, so its length is added up
+	 * the same way.
+	 *
+	 * @param id
+	 *            document id
+	 * @param length
+	 *            number of words parsed
+	 */
+	public void addLength(int id, int length) {
+		lock.acquireWriteLock();
+		if (id >= lengths.length) {
+			lengths = Arrays.copyOf(lengths, Math.max(id + 1,
+					lengths.length * 2));
+		}
+		lengths[id] += length;
+		totalLength += length;
+		changed = true;
+		lock.releaseWriteLock();
+	}
+
+	/**
+	 * Returns the number of words in every document, indexed by document id.
+	 * A removed document has a length of zero.
+	 *
+	 * @return copy of the lengths
+	 */
+	public int[] getLengths() {
+		lock.acquireReadLock();
+		int[] copy = Arrays.copyOf(lengths, count);
+		lock.releaseReadLock();
+		return copy;
+	}
+
+	/**
+	 * Returns the average number of words in a document that was not removed.
+	 *
+	 * @return average length, or zero if no lengths were recorded
+	 */
+	public double getAverageLength() {
+		lock.acquireReadLock();
+		int live = count - removedCount;
+		double average = live == 0 ? 0 : (double) totalLength / live;
+		lock.releaseReadLock();
+		return average;
+	}
+
+	/**
+	 * Sets the scorer used to rank searches of these documents, or
+	 * <code>null</code> to rank by frequency.
+	 *
+	 * @param scorer
+	 */
+	public synchronized void setScorer(Scorer scorer) {
+		changed = false;
+		this.scorer = scorer;
+	}
+
+	/**
+	 * Returns the scorer used to rank searches of these documents, rebuilding
+	 * it first if the documents changed since it was made. The flag is
+	 * cleared before the scorer is rebuilt, so a change made while it is
+	 * being rebuilt sets it again.
+	 *
+	 * @return scorer or <code>null</code>
+	 */
+	public Scorer getScorer() {
+		Scorer current = scorer;
+		if (current != null && changed) {
+			synchronized (this) {
+				if (changed) {
+					changed = false;
+					scorer = scorer.rebuild(this);
+				}
+				current = scorer;
+			}
+		}
+		return current;
+	}
+
+	/**
+	 * Returns the number of documents in the table.
+	 *
+	 * @return number of documents
+	 */
+	public int size() {
+		lock.acquireReadLock();
+		int size = count;
+		lock.releaseReadLock();
+		return size;
+	}
+
+	/**
+	 * Returns the number of documents in the table that were not removed.
+	 * A replaced document is only counted once, by its newest id.
+	 *
+	 * @return number of documents left
+	 */
+	public int liveSize() {
+		lock.acquireReadLock();
+		int size = count - removedCount;
+		lock.releaseReadLock();
+		return size;
+	}
+
+	/**
+	 * Returns the place of every document when the paths are sorted, indexed
+	 * by document id. Comparing two ranks gives the same answer as comparing
+	 * the two paths, which lets callers print documents in path order without
+	 * comparing strings over and over again.
+	 *
+	 * @return array of ranks indexed by document id
+	 */
+	public int[] getRanks() {
+		lock.acquireReadLock();
+		final String[] names = Arrays.copyOf(paths, count);
+		lock.releaseReadLock();
+
+		Integer[] order = new Integer[names.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return names[a].compareTo(names[b]);
+			}
+		});
+
+		int[] ranks = new int[order.length];
+		for (int i = 0; i < order.length; i++) {
+			ranks[order[i]] = i;
+		}
+		return ranks;
+	}
+}
@@ -1,3 +1,4 @@
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 
@@ -8,7 +9,37 @@ import java.nio.file.Paths;
  * and positions in inverted index. We also call argument parser class to check
  * which directory we need to access and what file we want to write out to. We
  * also check to see if a partial search needs to be done, and appropriately
- * call that method.
+ * call that method. The other flags choose how the index is built and
+ * searched:
+ * 
+ * <pre>
+ * -s [file]   save the built index to a binary {@link IndexSegment}
+ * -l file     map a saved segment instead of traversing the files again
+ * -g [n]      build a {@link SegmentedIndex}, flushing a segment every n files
+ * -c          build a {@link ConcurrentInvertedIndex} without a global lock
+ * -p [n]      search {@link SnapshotIndex} snapshots, published every n files
+ * -f          merge the local index of every file in a fork-join tree
+ * -o          guard the index and results with an {@link OptimisticLock}
+ * -w          use writer-fair locks and log their statistics at the end,
+ *             not with -o
+ * -e          match query words exactly instead of as prefixes
+ * -k n        keep only the best n results of each query
+ * -a [n]      precompute search totals of every prefix up to n characters,
+ *             not with -g, -c or -p
+ * -h [n]      cache the results of the last n distinct queries
+ * -n          search and print a {@link RadixIndex} built from the index,
+ *             not with -g, -c or -p
+ * -b          read query lines as boolean queries using AND, OR, NOT and
+ *             quoted phrases
+ * -m          rank results with the BM25 {@link BM25Scorer}
+ * -v          skip documents that cannot reach the best -k results of -m
+ * -j          search the whole query file as one batch, not with -b or -v
+ * -z          write the results of each query as soon as it is done
+ * -x format   write the index and results as json or binary instead of text
+ * -y [n]      watch the -d directory for n seconds and index changed files
+ *             again with an {@link IndexWatcher}, printing the -i file again,
+ *             not with -g, -c or -p
+ * </pre>
  * 
  * @author: Paul Hundal
  */
@@ -25,7 +56,6 @@ public class Driver {
 
 		} else {
 			ArgumentParser arguments = new ArgumentParser(args);
-			InvertedIndex index = new InvertedIndex();
 			int thread = 5;
 
 			if (arguments.hasFlag("-t") && arguments.hasValidInteger("-t")) {
@@ -33,52 +63,229 @@ public class Driver {
 			}
 
 			WorkQueue workers = new WorkQueue(thread);
-			InvertedIndexBuilder traverser = new InvertedIndexBuilder(workers);
-			QueryFileParser results = new QueryFileParser(workers);
+			if (arguments.hasFlag("-o") && arguments.hasFlag("-w")) {
+				System.out.println("Writer-fair locks and their statistics "
+						+ "cannot be used with -o.");
+			}
+			Lock indexLock = createLock("index", arguments);
+			Lock builderLock = createLock("builder", arguments);
+			Lock resultsLock = createLock("results", arguments);
+			InvertedIndex inverted = new InvertedIndex(new DocumentTable(),
+					indexLock);
+			if (arguments.hasFlag("-a")) {
+				int length = PrefixAggregates.DEFAULT;
+				if (arguments.hasValidInteger("-a")) {
+					length = arguments.getInteger("-a");
+				}
+				inverted.setPrefixLength(length);
+			}
+			inverted.setWorkers(workers);
+			WritableIndex index = inverted;
+
+			if (arguments.hasFlag("-g")) {
+				int batch = SegmentedIndex.DEFAULT;
+				if (arguments.hasValidInteger("-g")) {
+					batch = arguments.getInteger("-g");
+				}
+				index = new SegmentedIndex(workers, batch);
+			} else if (arguments.hasFlag("-c")) {
+				index = new ConcurrentInvertedIndex();
+			} else if (arguments.hasFlag("-p")) {
+				int batch = SnapshotIndex.DEFAULT;
+				if (arguments.hasValidInteger("-p")) {
+					batch = arguments.getInteger("-p");
+				}
+				index = new SnapshotIndex(batch);
+			}
+			if (index != inverted && arguments.hasFlag("-a")) {
+				System.out.println("Prefix totals cannot be precomputed "
+						+ "with -g, -c or -p.");
+			}
+			if (index != inverted && arguments.hasFlag("-n")) {
+				System.out.println("A radix tree cannot be built "
+						+ "with -g, -c or -p.");
+			}
+			InvertedIndexBuilder traverser = new InvertedIndexBuilder(workers,
+					builderLock);
+			traverser.setForkJoin(arguments.hasFlag("-f"));
+			QueryFileParser results = new QueryFileParser(workers,
+					resultsLock);
+			results.setExact(arguments.hasFlag("-e"));
+			results.setBooleanQueries(arguments.hasFlag("-b"));
+			results.setPruning(arguments.hasFlag("-v"));
+			results.setBatch(arguments.hasFlag("-j"));
+			if (arguments.hasFlag("-j")
+					&& (arguments.hasFlag("-b") || arguments.hasFlag("-v"))) {
+				System.out.println("A query file cannot be searched as one "
+						+ "batch with -b or -v.");
+			}
+			if (arguments.hasFlag("-k") && arguments.hasValidInteger("-k")) {
+				results.setLimit(arguments.getInteger("-k"));
+			}
+			QueryCache cache = null;
+			if (arguments.hasFlag("-h")) {
+				int capacity = QueryCache.DEFAULT;
+				if (arguments.hasValidInteger("-h")) {
+					capacity = arguments.getInteger("-h");
+				}
+				cache = new QueryCache(capacity);
+				results.setCache(cache);
+			}
+
+			ExportEncoder encoder = null;
+			if (arguments.hasFlag("-x")) {
+				encoder = ExportEncoder.forFormat(arguments.getValue("-x"));
+				if (encoder == null) {
+					System.out.println("Unknown export format "
+							+ arguments.getValue("-x") + ".");
+				}
+			}
 
 			if (arguments.hasFlag("-u") && arguments.hasURL("-u")) {
 				traverser.seedIndex(arguments.getValue("-u"), index);
+				index.seal();
 			}
 
 			if (arguments.hasFlag("-d") && !arguments.hasFlag("-q")) {
 				traverser.parser(arguments.getValue("-d"), ".txt", index);
-				index.printMap("invertedindex.txt");
+				index.seal();
+				printMap(index, "invertedindex.txt", encoder);
 			}
 			if (arguments.hasFlag("-d") && !arguments.hasFlag("-i")) {
 				traverser.parser(arguments.getValue("-d"), ".txt", index);
+				index.seal();
 			}
 			if (arguments.hasFlag("-d") && arguments.hasFlag("-q")
 					&& !arguments.hasFlag("-i") && !arguments.hasFlag("-r")) {
 				System.out.println("Cannot print with these args.");
 			}
+			if (arguments.hasFlag("-s")) {
+				String filename = "invertedindex.seg";
+				if (arguments.getValue("-s") != null) {
+					filename = arguments.getValue("-s");
+				}
+				index.saveSegment(filename);
+			}
+
+			SearchableIndex searchable = index;
+			if (arguments.hasFlag("-n") && index == inverted) {
+				searchable = new RadixIndex(inverted);
+			}
+			if (arguments.hasFlag("-l") && arguments.hasValue("-l")) {
+				try {
+					searchable = new IndexSegment(arguments.getValue("-l"));
+				} catch (IOException e) {
+					System.out.println("The index file "
+							+ arguments.getValue("-l") + " could not be loaded.");
+				}
+			}
 			if (arguments.hasFlag("-i")) {
 				String filename = "invertedindex.txt";
 				if (arguments.getValue("-i") != null) {
 					filename = arguments.getValue("-i");
 				}
-				index.printMap(filename);
+				printMap(searchable, filename, encoder);
 			} else if (!arguments.hasFlag("-i") && arguments.hasFlag("-r")) {
-				index.printMap("invertedindex.txt");
+				printMap(searchable, "invertedindex.txt", encoder);
+			}
+			if (arguments.hasFlag("-m")) {
+				DocumentTable documents = searchable.getDocuments();
+				documents.setScorer(new BM25Scorer(documents));
 			}
 			if (arguments.hasFlag("-q")) {
+				String filename = "searchresults.txt";
+				if (arguments.getValue("-r") != null) {
+					filename = arguments.getValue("-r");
+				}
+				boolean streaming = arguments.hasFlag("-r")
+						&& arguments.hasFlag("-z");
+				if (streaming) {
+					results.setOutput(filename, encoder);
+				}
 
 				if (Files.isReadable(Paths.get(arguments.getValue("-q")))) {
 					if (arguments.getValue("-q").toLowerCase().endsWith(".txt")) {
-						results.search((arguments.getValue("-q")), index);
+						results.search((arguments.getValue("-q")), searchable);
 					}
 				}
-				if (arguments.hasFlag("-r")) {
-					String filename = "searchresults.txt";
-
-					if (arguments.getValue("-r") != null) {
-						filename = arguments.getValue("-r");
+				if (arguments.hasFlag("-r") && !streaming) {
+					if (encoder != null) {
+						results.exportResults(filename, encoder);
+					} else {
+						results.printResults(filename);
+					}
+				}
+			}
+			if (arguments.hasFlag("-y") && index != inverted) {
+				System.out.println("The directory cannot be watched "
+						+ "with -g, -c or -p.");
+			} else if (arguments.hasFlag("-y") && !arguments.hasFlag("-d")) {
+				System.out.println("There is no -d directory to watch.");
+			} else if (arguments.hasFlag("-y")) {
+				int seconds = IndexWatcher.DEFAULT;
+				if (arguments.hasValidInteger("-y")) {
+					seconds = arguments.getInteger("-y");
+				}
+				IndexWatcher watcher = new IndexWatcher(traverser, inverted,
+						".txt");
+				if (arguments.hasFlag("-i")) {
+					String filename = "invertedindex.txt";
+					if (arguments.getValue("-i") != null) {
+						filename = arguments.getValue("-i");
 					}
-					results.printResults(filename);
+					watcher.setOutput(filename, encoder);
 				}
+				watcher.watch(seconds);
 			}
 			traverser.shutdown();
 			results.shutdown();
+
+			if (arguments.hasFlag("-w") && !arguments.hasFlag("-o")) {
+				indexLock.logStatistics();
+				builderLock.logStatistics();
+				resultsLock.logStatistics();
+			}
+			if (cache != null) {
+				cache.logStatistics();
+			}
+			results.logStatistics();
 		}
 
 	}
+
+	/**
+	 * Creates the lock for one part of the program: an {@link OptimisticLock}
+	 * with {@code -o}, which takes the place of {@code -w}, a writer-fair
+	 * {@link Lock} that keeps statistics with {@code -w}, or the default
+	 * reader-preferring lock.
+	 * 
+	 * @param name
+	 * @param arguments
+	 * @return new lock
+	 */
+	private static Lock createLock(String name, ArgumentParser arguments) {
+		if (arguments.hasFlag("-o")) {
+			return new OptimisticLock(name);
+		}
+		boolean fair = arguments.hasFlag("-w");
+		return new Lock(name, fair, fair);
+	}
+
+	/**
+	 * Prints the index to the file as text, or exports it with the encoder
+	 * if one was chosen.
+	 * 
+	 * @param index
+	 * @param filename
+	 * @param encoder
+	 *            export encoder, or <code>null</code> to print text
+	 */
+	private static void printMap(SearchableIndex index, String filename,
+			ExportEncoder encoder) {
+		if (encoder != null) {
+			index.exportMap(filename, encoder);
+		} else {
+			index.printMap(filename);
+		}
+	}
 }
\ No newline at end of file
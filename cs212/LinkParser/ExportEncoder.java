@@ -0,0 +1,330 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * Writes an index or a set of search results in a format meant for other
+ * programs to read, instead of the text written by
+ * {@link SearchableIndex#printMap(String)} and
+ * {@link QueryFileParser#printResults(String)}. Writers call the methods in
+ * the same order they write the text, so the export holds the same words,
+ * files and results in the same order.
+ *
+ * Everything is encoded straight in to one byte buffer that is reused for
+ * the whole file and handed to a {@link FileChannel} whenever it fills up.
+ * Strings are encoded to UTF-8 a character at a time and numbers a digit or
+ * a byte at a time, so nothing is allocated per word, file or position.
+ *
+ * @author Paul Hundal
+ *
+ */
+public abstract class ExportEncoder implements Closeable {
+
+	/** Name of the JSON format. */
+	public static final String JSON = "json";
+
+	/** Name of the length-prefixed binary format. */
+	public static final String BINARY = "binary";
+
+	/** The starting size of the buffer. */
+	private static final int BUFFER = 1 << 16;
+
+	protected ByteBuffer buffer;
+	private FileChannel channel;
+
+	public ExportEncoder() {
+		buffer = ByteBuffer.allocate(BUFFER);
+		channel = null;
+	}
+
+	/**
+	 * Returns an encoder for the named format.
+	 *
+	 * @param format
+	 *            {@link #JSON} or {@link #BINARY}
+	 * @return encoder, or <code>null</code> if the format is not known
+	 */
+	public static ExportEncoder forFormat(String format) {
+		if (JSON.equalsIgnoreCase(format)) {
+			return new JsonEncoder();
+		} else if (BINARY.equalsIgnoreCase(format)) {
+			return new BinaryEncoder();
+		}
+		return null;
+	}
+
+	/**
+	 * Opens the file to write. An encoder writes one file at a time and can
+	 * be opened again once it is closed, so it is meant to be opened in a
+	 * try-with-resources statement.
+	 *
+	 * @param filename
+	 * @return this encoder
+	 * @throws IOException
+	 */
+	public ExportEncoder open(String filename) throws IOException {
+		channel = FileChannel.open(Paths.get(filename),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		buffer.clear();
+		begin();
+		return this;
+	}
+
+	/**
+	 * Finishes the file and closes it.
+	 *
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			end();
+			flush();
+		} finally {
+			channel.close();
+			channel = null;
+		}
+	}
+
+	/**
+	 * Writes one word and every file it appears in, in the same order as
+	 * {@link MapWriter#writeWord}.
+	 *
+	 * @param word
+	 * @param postings
+	 * @param documents
+	 * @param ranks
+	 *            path order of every document id
+	 * @throws IOException
+	 */
+	public void writeWord(String word, TermPostings postings,
+			DocumentTable documents, int[] ranks) throws IOException {
+		startWord(word, postings.size());
+		for (int index : InvertedIndex.sortByPath(postings, ranks)) {
+			PostingList list = postings.getPositions(index);
+			startDocument(documents.getPath(postings.getDocument(index)),
+					list.size());
+			PostingList.Cursor positions = list.cursor();
+			while (positions.hasNext()) {
+				addPosition(positions.next());
+			}
+			endDocument();
+		}
+		endWord();
+	}
+
+	/**
+	 * Writes one query line and its results.
+	 *
+	 * @param query
+	 * @param results
+	 *            sorted results, or <code>null</code> if there were none
+	 * @throws IOException
+	 */
+	public void writeQuery(String query, ArrayList<SearchResults> results)
+			throws IOException {
+		int count = results != null ? results.size() : 0;
+		startQuery(query, count);
+		for (int i = 0; i < count; i++) {
+			SearchResults result = results.get(i);
+			addResult(result.getPath(), result.getFrequency(),
+					result.getPosition());
+		}
+		endQuery();
+	}
+
+	/**
+	 * Writes whatever comes before the first word or query.
+	 *
+	 * @throws IOException
+	 */
+	protected abstract void begin() throws IOException;
+
+	/**
+	 * Writes whatever comes after the last word or query.
+	 *
+	 * @throws IOException
+	 */
+	protected abstract void end() throws IOException;
+
+	/**
+	 * Starts a word of the index.
+	 *
+	 * @param word
+	 * @param documents
+	 *            number of files the word appears in
+	 * @throws IOException
+	 */
+	public abstract void startWord(String word, int documents)
+			throws IOException;
+
+	/**
+	 * Starts a file of the current word.
+	 *
+	 * @param path
+	 * @param positions
+	 *            number of positions of the word in the file
+	 * @throws IOException
+	 */
+	public abstract void startDocument(String path, int positions)
+			throws IOException;
+
+	/**
+	 * Adds a position of the word in the current file.
+	 *
+	 * @param position
+	 * @throws IOException
+	 */
+	public abstract void addPosition(int position) throws IOException;
+
+	/**
+	 * Ends the current file.
+	 *
+	 * @throws IOException
+	 */
+	public abstract void endDocument() throws IOException;
+
+	/**
+	 * Ends the current word.
+	 *
+	 * @throws IOException
+	 */
+	public abstract void endWord() throws IOException;
+
+	/**
+	 * Starts a query line.
+	 *
+	 * @param query
+	 * @param results
+	 *            number of results of the line
+	 * @throws IOException
+	 */
+	public abstract void startQuery(String query, int results)
+			throws IOException;
+
+	/**
+	 * Adds a result of the current query line.
+	 *
+	 * @param path
+	 * @param frequency
+	 * @param position
+	 * @throws IOException
+	 */
+	public abstract void addResult(String path, int frequency, int position)
+			throws IOException;
+
+	/**
+	 * Ends the current query line.
+	 *
+	 * @throws IOException
+	 */
+	public abstract void endQuery() throws IOException;
+
+	/**
+	 * Makes sure the buffer has room for the given number of bytes, writing
+	 * it out to the file first if it does not. The buffer only grows if a
+	 * single value is larger than all of it.
+	 *
+	 * @param bytes
+	 * @throws IOException
+	 */
+	protected void ensure(int bytes) throws IOException {
+		if (buffer.remaining() < bytes) {
+			flush();
+			if (buffer.capacity() < bytes) {
+				buffer = ByteBuffer.allocate(Math.max(bytes,
+						buffer.capacity() * 2));
+			}
+		}
+	}
+
+	/**
+	 * Writes the buffer out to the file and empties it.
+	 *
+	 * @throws IOException
+	 */
+	protected void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Returns the number of bytes the string takes up in UTF-8.
+	 *
+	 * @param text
+	 * @return length in bytes
+	 */
+	protected static int utf8Length(String text) {
+		int length = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c < 0x80) {
+				length += 1;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (isPair(text, i)) {
+				length += 4;
+				i++;
+			} else {
+				length += Character.isSurrogate(c) ? 1 : 3;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Encodes the character at the offset in to the buffer, which must have
+	 * room for four bytes. A surrogate without its other half is written as
+	 * a question mark, like {@link String#getBytes(java.nio.charset.Charset)}
+	 * does.
+	 *
+	 * @param text
+	 * @param index
+	 *            offset of the character
+	 * @return offset of the next character
+	 */
+	protected int putChar(String text, int index) {
+		char c = text.charAt(index);
+		if (c < 0x80) {
+			buffer.put((byte) c);
+		} else if (c < 0x800) {
+			buffer.put((byte) (0xC0 | (c >> 6)));
+			buffer.put((byte) (0x80 | (c & 0x3F)));
+		} else if (isPair(text, index)) {
+			int code = Character.toCodePoint(c, text.charAt(index + 1));
+			buffer.put((byte) (0xF0 | (code >> 18)));
+			buffer.put((byte) (0x80 | ((code >> 12) & 0x3F)));
+			buffer.put((byte) (0x80 | ((code >> 6) & 0x3F)));
+			buffer.put((byte) (0x80 | (code & 0x3F)));
+			return index + 2;
+		} else if (Character.isSurrogate(c)) {
+			buffer.put((byte) '?');
+		} else {
+			buffer.put((byte) (0xE0 | (c >> 12)));
+			buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+			buffer.put((byte) (0x80 | (c & 0x3F)));
+		}
+		return index + 1;
+	}
+
+	/**
+	 * Checks if a high surrogate and its low surrogate start at the offset.
+	 *
+	 * @param text
+	 * @param index
+	 * @return <code>true</code> if there is a surrogate pair
+	 */
+	private static boolean isPair(String text, int index) {
+		return Character.isHighSurrogate(text.charAt(index))
+				&& index + 1 < text.length()
+				&& Character.isLowSurrogate(text.charAt(index + 1));
+	}
+}
@@ -0,0 +1,650 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A read-only index stored in a binary file. The file is opened with
+ * {@link FileChannel#map}, and searches read the words and postings straight
+ * out of the mapped file, so loading an index does not copy it on to the heap.
+ * Only the paths and lengths of the documents are read in to a
+ * {@link DocumentTable}, so a mapped segment ranks with {@link BM25Scorer} the
+ * same as the index it was written from.
+ *
+ * The file is written in one pass by {@link #write} and holds, in order:
+ *
+ * <pre>
+ * postings   for each word: document count, then for each document the
+ *            document id difference, frequency, first position, number of
+ *            position bytes, and the positions as stored in a PostingList
+ * words      front-coded blocks of {@link TermDictionary#BLOCK} words, each
+ *            entry holding the shared length, suffix length, suffix bytes
+ *            and the offset of the postings of the word
+ * blocks     offset of every block of words
+ * documents  length and UTF-8 bytes of every path, then the number of
+ *            words in the document, in path order
+ * footer     offsets of the sections above, the counts, magic and version
+ * </pre>
+ *
+ * Document ids are renumbered in path order when written, so the documents of
+ * each word are already in the order {@link #printMap(String)} needs. Variable
+ * length integers use the same encoding as {@link PostingList}. A segment is
+ * limited to 2GB, the most a single mapped buffer can hold. Segments of the
+ * first version, written before the lengths of the documents were stored, can
+ * still be mapped but rank without length normalization.
+ *
+ * @author Paul Hundal
+ *
+ */
+public class IndexSegment implements SearchableIndex {
+
+	private static final int MAGIC = 0x4C504958;
+	private static final int VERSION = 2;
+	private static final int FOOTER = 32;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static Logger log = LogManager.getLogger();
+
+	private final MappedByteBuffer buffer;
+	private final DocumentTable documents;
+	private final int terms;
+	private final int blocks;
+	private final int termsOffset;
+	private final int blocksOffset;
+
+	/**
+	 * Opens and maps the given segment file.
+	 *
+	 * @param filename
+	 *            segment file written by {@link #write}
+	 * @throws IOException
+	 *             if the file cannot be read or is not a segment
+	 */
+	public IndexSegment(String filename) throws IOException {
+		Path path = Paths.get(filename);
+		try (FileChannel channel = FileChannel.open(path,
+				StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size());
+		}
+
+		int footer = buffer.capacity() - FOOTER;
+		int version = footer >= 0 ? buffer.getInt(footer + 28) : 0;
+		if (footer < 0 || buffer.getInt(footer + 24) != MAGIC || version < 1
+				|| version > VERSION) {
+			throw new IOException(filename + " is not an index segment.");
+		}
+		termsOffset = buffer.getInt(footer);
+		blocksOffset = buffer.getInt(footer + 4);
+		int documentsOffset = buffer.getInt(footer + 8);
+		terms = buffer.getInt(footer + 12);
+		blocks = buffer.getInt(footer + 16);
+		int count = buffer.getInt(footer + 20);
+
+		documents = new DocumentTable();
+		Reader reader = new Reader(documentsOffset);
+		for (int i = 0; i < count; i++) {
+			int id = documents.getId(reader.readString());
+			if (version >= 2) {
+				documents.addLength(id, reader.readVarint());
+			}
+		}
+		log.info("Mapped {} words and {} documents from {}.", terms, count,
+				filename);
+	}
+
+	@Override
+	public DocumentTable getDocuments() {
+		return documents;
+	}
+
+	/**
+	 * A segment never changes once it is mapped, so its generation is always
+	 * zero.
+	 */
+	@Override
+	public long getGeneration() {
+		return 0;
+	}
+
+	/**
+	 * Returns the number of words in the segment.
+	 *
+	 * @return number of words
+	 */
+	public int size() {
+		return terms;
+	}
+
+	@Override
+	public ArrayList<SearchResults> partialSearch(ArrayList<String> querywords,
+			int limit) {
+		SearchAccumulator tempResults = new SearchAccumulator(documents);
+
+		for (String word : querywords) {
+			partialSearch(word, tempResults);
+		}
+		return tempResults.getResults(documents, limit);
+	}
+
+	/**
+	 * Adds every document containing a word that starts with the query word to
+	 * the given results.
+	 *
+	 * @param word
+	 * @param tempResults
+	 */
+	private void partialSearch(String word, SearchAccumulator tempResults) {
+		byte[] prefix = word.getBytes(UTF8);
+		TermReader cursor = seek(prefix);
+		while (cursor.isValid() && cursor.startsWith(prefix)) {
+			addPostings(cursor.getPostings(), tempResults);
+			cursor.next();
+		}
+	}
+
+	/**
+	 * Adds the document, frequency and first position of every document in
+	 * the postings starting at the given offset.
+	 *
+	 * @param offset
+	 *            offset of the postings of a word
+	 * @param tempResults
+	 */
+	private void addPostings(int offset, SearchAccumulator tempResults) {
+		Reader postings = new Reader(offset);
+		int count = postings.readVarint();
+		int document = 0;
+		for (int i = 0; i < count; i++) {
+			document += postings.readVarint();
+			int frequency = postings.readVarint();
+			int first = postings.readVarint();
+			postings.skip(postings.readVarint());
+			tempResults.addTerm(document, frequency, first, count);
+		}
+	}
+
+	@Override
+	public ArrayList<SearchResults> partialSearch(ArrayList<String> querywords) {
+		return partialSearch(querywords, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * The segment file has no hash table, so each word is found with the same
+	 * block search as a prefix, keeping only the word that matches exactly.
+	 */
+	@Override
+	public ArrayList<SearchResults> exactSearch(ArrayList<String> querywords,
+			int limit) {
+		SearchAccumulator tempResults = new SearchAccumulator(documents);
+
+		for (String word : querywords) {
+			exactSearch(word, tempResults);
+		}
+		return tempResults.getResults(documents, limit);
+	}
+
+	/**
+	 * Adds every document containing exactly the query word to the given
+	 * results.
+	 *
+	 * @param word
+	 * @param tempResults
+	 */
+	private void exactSearch(String word, SearchAccumulator tempResults) {
+		byte[] bytes = word.getBytes(UTF8);
+		TermReader cursor = seek(bytes);
+		if (cursor.isValid() && cursor.compareTo(bytes) == 0) {
+			addPostings(cursor.getPostings(), tempResults);
+		}
+	}
+
+	@Override
+	public ArrayList<SearchResults> exactSearch(ArrayList<String> querywords) {
+		return exactSearch(querywords, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Decodes the matches of the word out of the mapped file. The postings
+	 * are compressed, so they cannot be read in place like those of a
+	 * {@link TermPostings}.
+	 */
+	@Override
+	public Matches getMatches(String word, boolean exact) {
+		SearchAccumulator tempResults = new SearchAccumulator(documents);
+		if (exact) {
+			exactSearch(word, tempResults);
+		} else {
+			partialSearch(word, tempResults);
+		}
+		return tempResults.toMatchList();
+	}
+
+	@Override
+	public ArrayList<Matches> getTermMatches(String word, boolean exact) {
+		ArrayList<Matches> lists = new ArrayList<Matches>();
+		lists.add(getMatches(word, exact));
+		return lists;
+	}
+
+	@Override
+	public ArrayList<ArrayList<Matches>> getTermMatches(String[] words,
+			boolean exact) {
+		ArrayList<ArrayList<Matches>> lists = new ArrayList<ArrayList<Matches>>();
+		for (String word : words) {
+			lists.add(getTermMatches(word, exact));
+		}
+		return lists;
+	}
+
+	/**
+	 * Decodes the documents and positions of the word out of the mapped file
+	 * in to new postings.
+	 */
+	@Override
+	public TermPostings getPostings(String word) {
+		byte[] bytes = word.getBytes(UTF8);
+		TermReader cursor = seek(bytes);
+		if (!cursor.isValid() || cursor.compareTo(bytes) != 0) {
+			return null;
+		}
+
+		TermPostings term = new TermPostings();
+		Reader postings = new Reader(cursor.getPostings());
+		int count = postings.readVarint();
+		int document = 0;
+		for (int i = 0; i < count; i++) {
+			document += postings.readVarint();
+			int frequency = postings.readVarint();
+			postings.readVarint();
+			postings.readVarint();
+
+			int position = 0;
+			for (int j = 0; j < frequency; j++) {
+				position += PostingList.unzigzag(postings.readVarint());
+				term.add(document, position);
+			}
+		}
+		return term;
+	}
+
+	@Override
+	public void printMap(String filename) {
+		Path path = Paths.get(filename);
+		try (BufferedWriter outputMap = Files.newBufferedWriter(path, UTF8);) {
+			TermReader cursor = new TermReader(0);
+			while (cursor.next()) {
+				outputMap.write(cursor.getWord());
+				outputMap.newLine();
+
+				Reader postings = new Reader(cursor.getPostings());
+				int count = postings.readVarint();
+				int document = 0;
+				for (int i = 0; i < count; i++) {
+					document += postings.readVarint();
+					int frequency = postings.readVarint();
+					postings.readVarint();
+					postings.readVarint();
+
+					outputMap.write("\"" + documents.getPath(document) + "\"");
+					int position = 0;
+					for (int j = 0; j < frequency; j++) {
+						position += PostingList.unzigzag(postings.readVarint());
+						outputMap.write(", ");
+						outputMap.write(Integer.toString(position));
+					}
+					outputMap.newLine();
+				}
+				outputMap.newLine();
+			}
+			outputMap.newLine();
+		} catch (IOException e) {
+			System.out.println("Your text file " + filename
+					+ " cannot be accessed.");
+		}
+	}
+
+	@Override
+	public void exportMap(String filename, ExportEncoder encoder) {
+		try (ExportEncoder output = encoder.open(filename)) {
+			TermReader cursor = new TermReader(0);
+			while (cursor.next()) {
+				Reader postings = new Reader(cursor.getPostings());
+				int count = postings.readVarint();
+				output.startWord(cursor.getWord(), count);
+				int document = 0;
+				for (int i = 0; i < count; i++) {
+					document += postings.readVarint();
+					int frequency = postings.readVarint();
+					postings.readVarint();
+					postings.readVarint();
+
+					output.startDocument(documents.getPath(document), frequency);
+					int position = 0;
+					for (int j = 0; j < frequency; j++) {
+						position += PostingList.unzigzag(postings.readVarint());
+						output.addPosition(position);
+					}
+					output.endDocument();
+				}
+				output.endWord();
+			}
+		} catch (IOException e) {
+			System.out.println("Your text file " + filename
+					+ " cannot be accessed.");
+		}
+	}
+
+	/**
+	 * Returns a cursor on the first word greater than or equal to the prefix.
+	 *
+	 * @param prefix
+	 *            UTF-8 bytes of the prefix
+	 * @return cursor on the first matching word
+	 */
+	private TermReader seek(byte[] prefix) {
+		int low = 0;
+		int high = blocks - 1;
+		int block = 0;
+
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			TermReader head = new TermReader(middle);
+			head.next();
+			if (head.compareTo(prefix) < 0) {
+				block = middle;
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+
+		TermReader cursor = new TermReader(block);
+		while (cursor.next()) {
+			if (cursor.compareTo(prefix) >= 0) {
+				break;
+			}
+		}
+		return cursor;
+	}
+
+	/**
+	 * Writes the words, postings and documents of an index to a segment file.
+	 *
+	 * @param dictionary
+	 *            sorted words of the index
+	 * @param postings
+	 *            postings of each word, indexed by ordinal
+	 * @param documents
+	 *            document table of the index
+	 * @param filename
+	 *            file to write
+	 * @throws IOException
+	 */
+	public static void write(final TermDictionary dictionary,
+			final TermPostings[] postings, DocumentTable documents,
+			String filename) throws IOException {
+		write(new TermCursor() {
+			private final TermDictionary.Cursor cursor = dictionary.cursor();
+
+			@Override
+			public boolean next() {
+				return cursor.next();
+			}
+
+			@Override
+			public String getWord() {
+				return cursor.getWord();
+			}
+
+			@Override
+			public TermPostings getPostings() {
+				return postings[cursor.getOrdinal()];
+			}
+		}, documents, filename);
+	}
+
+	/**
+	 * Writes the words read from a cursor to a segment file. The postings of
+	 * each word are written as soon as the cursor reaches it, so only the
+	 * words themselves are held until the end.
+	 *
+	 * @param terms
+	 *            cursor over the words of the index in sorted order
+	 * @param documents
+	 *            document table of the index
+	 * @param filename
+	 *            file to write
+	 * @throws IOException
+	 */
+	public static void write(TermCursor terms, DocumentTable documents,
+			String filename) throws IOException {
+		int[] ranks = documents.getRanks();
+		ArrayList<String> words = new ArrayList<String>();
+		int[] offsets = new int[64];
+
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(Paths
+						.get(filename))))) {
+
+			while (terms.next()) {
+				TermPostings term = terms.getPostings();
+				if (words.size() == offsets.length) {
+					offsets = Arrays.copyOf(offsets, offsets.length * 2);
+				}
+				offsets[words.size()] = out.size();
+				words.add(terms.getWord());
+				writeVarint(out, term.size());
+				int previous = 0;
+				for (int index : InvertedIndex.sortByPath(term, ranks)) {
+					int document = ranks[term.getDocument(index)];
+					PostingList list = term.getPositions(index);
+					writeVarint(out, document - previous);
+					writeVarint(out, list.size());
+					writeVarint(out, list.getFirst());
+					writeVarint(out, list.getByteLength());
+					list.writeTo(out);
+					previous = document;
+				}
+			}
+
+			int termsOffset = out.size();
+			int[] blockOffsets = new int[(words.size()
+					+ TermDictionary.BLOCK - 1)
+					/ TermDictionary.BLOCK];
+			byte[] previous = new byte[0];
+			for (int ordinal = 0; ordinal < words.size(); ordinal++) {
+				byte[] word = words.get(ordinal).getBytes(UTF8);
+				int shared = 0;
+				if (ordinal % TermDictionary.BLOCK == 0) {
+					blockOffsets[ordinal / TermDictionary.BLOCK] = out.size();
+				} else {
+					int max = Math.min(previous.length, word.length);
+					while (shared < max && previous[shared] == word[shared]) {
+						shared++;
+					}
+				}
+				writeVarint(out, shared);
+				writeVarint(out, word.length - shared);
+				out.write(word, shared, word.length - shared);
+				out.writeInt(offsets[ordinal]);
+				previous = word;
+			}
+
+			int blocksOffset = out.size();
+			for (int offset : blockOffsets) {
+				out.writeInt(offset);
+			}
+
+			int documentsOffset = out.size();
+			int[] lengths = documents.getLengths();
+			String[] paths = new String[ranks.length];
+			int[] pathLengths = new int[ranks.length];
+			for (int id = 0; id < ranks.length; id++) {
+				paths[ranks[id]] = documents.getPath(id);
+				pathLengths[ranks[id]] = id < lengths.length ? lengths[id] : 0;
+			}
+			for (int rank = 0; rank < paths.length; rank++) {
+				byte[] bytes = paths[rank].getBytes(UTF8);
+				writeVarint(out, bytes.length);
+				out.write(bytes);
+				writeVarint(out, pathLengths[rank]);
+			}
+
+			out.writeInt(termsOffset);
+			out.writeInt(blocksOffset);
+			out.writeInt(documentsOffset);
+			out.writeInt(words.size());
+			out.writeInt(blockOffsets.length);
+			out.writeInt(paths.length);
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+		}
+		log.info("Wrote {} words to {}.", words.size(), filename);
+	}
+
+	/**
+	 * Writes a variable length integer the same way {@link PostingList} does.
+	 *
+	 * @param out
+	 * @param value
+	 * @throws IOException
+	 */
+	private static void writeVarint(DataOutputStream out, int value)
+			throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	/**
+	 * Reads values from the mapped file starting at an offset. Only absolute
+	 * reads are used, so many readers can share the buffer across threads.
+	 */
+	private class Reader {
+		protected int offset;
+
+		public Reader(int offset) {
+			this.offset = offset;
+		}
+
+		public int readVarint() {
+			int value = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = buffer.get(offset++);
+				value |= (b & 0x7F) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			return value;
+		}
+
+		public int readInt() {
+			int value = buffer.getInt(offset);
+			offset += 4;
+			return value;
+		}
+
+		public void skip(int bytes) {
+			offset += bytes;
+		}
+
+		public String readString() {
+			byte[] bytes = new byte[readVarint()];
+			for (int i = 0; i < bytes.length; i++) {
+				bytes[i] = buffer.get(offset++);
+			}
+			return new String(bytes, UTF8);
+		}
+	}
+
+	/**
+	 * Reads the front-coded words of the segment in order, rebuilding each
+	 * word in a reused byte array.
+	 */
+	private class TermReader extends Reader {
+		private byte[] word;
+		private int length;
+		private int ordinal;
+		private int postings;
+		private boolean valid;
+
+		public TermReader(int block) {
+			super(blocks > 0 ? buffer.getInt(blocksOffset + 4 * block)
+					: termsOffset);
+			word = new byte[32];
+			length = 0;
+			ordinal = block * TermDictionary.BLOCK - 1;
+			valid = false;
+		}
+
+		public boolean next() {
+			if (ordinal + 1 >= terms) {
+				valid = false;
+				return false;
+			}
+			int shared = readVarint();
+			int suffix = readVarint();
+			if (shared + suffix > word.length) {
+				word = Arrays.copyOf(word, Math.max(word.length * 2, shared
+						+ suffix));
+			}
+			for (int i = 0; i < suffix; i++) {
+				word[shared + i] = buffer.get(offset++);
+			}
+			length = shared + suffix;
+			postings = readInt();
+			ordinal++;
+			valid = true;
+			return true;
+		}
+
+		public boolean isValid() {
+			return valid;
+		}
+
+		public int getPostings() {
+			return postings;
+		}
+
+		public String getWord() {
+			return new String(word, 0, length, UTF8);
+		}
+
+		public boolean startsWith(byte[] prefix) {
+			if (prefix.length > length) {
+				return false;
+			}
+			for (int i = 0; i < prefix.length; i++) {
+				if (word[i] != prefix[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		public int compareTo(byte[] other) {
+			int max = Math.min(length, other.length);
+			for (int i = 0; i < max; i++) {
+				if (word[i] != other[i]) {
+					return (word[i] & 0xFF) - (other[i] & 0xFF);
+				}
+			}
+			return length - other.length;
+		}
+	}
+}
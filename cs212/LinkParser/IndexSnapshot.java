@@ -0,0 +1,406 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * An immutable, point-in-time view of an index. Nothing in a snapshot is ever
+ * changed after it is created, so any number of threads can search it without
+ * a lock.
+ *
+ * A snapshot is a list of sealed segments, oldest first. New words are added
+ * by building a new snapshot with {@link #merge(InvertedIndex)}, which shares
+ * every segment with the old snapshot and adds the new batch as one more
+ * segment, so publishing costs the size of the batch rather than the size of
+ * the index. Whenever {@link #MERGE_FACTOR} neighbouring segments of the same
+ * level exist they are copied in to one segment of the next level, so the
+ * number of segments stays logarithmic in the number of batches and every
+ * posting is only copied a logarithmic number of times.
+ *
+ * A word can be split over several segments, so scored searches combine the
+ * postings of each word across the segments before scoring them.
+ *
+ * @author Paul Hundal
+ *
+ */
+public class IndexSnapshot {
+
+	/** The number of segments of the same level merged in to one. */
+	public static final int MERGE_FACTOR = 4;
+
+	private final Segment[] segments;
+	private final DocumentTable documents;
+	private final long generation;
+
+	/**
+	 * Creates an empty snapshot.
+	 *
+	 * @param documents
+	 *            document table of the index
+	 */
+	public IndexSnapshot(DocumentTable documents) {
+		this(new Segment[0], documents, 0);
+	}
+
+	private IndexSnapshot(Segment[] segments, DocumentTable documents,
+			long generation) {
+		this.segments = segments;
+		this.documents = documents;
+		this.generation = generation;
+	}
+
+	/**
+	 * Returns the generation of this snapshot, which goes up by one every time
+	 * a new snapshot is published.
+	 *
+	 * @return generation number
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Returns the number of segments in this snapshot.
+	 *
+	 * @return number of segments
+	 */
+	public int size() {
+		return segments.length;
+	}
+
+	/**
+	 * Builds the next snapshot out of this one and the words of the given
+	 * index. The words become a new segment after the segments of this
+	 * snapshot, and the newest segments are merged while there are
+	 * {@link #MERGE_FACTOR} of the same level. This snapshot is left as it
+	 * was.
+	 *
+	 * @param changes
+	 *            index using the same document table, which should not be
+	 *            used afterwards
+	 * @return the next snapshot
+	 */
+	public IndexSnapshot merge(InvertedIndex changes) {
+		ArrayList<Segment> list = new ArrayList<Segment>(
+				Arrays.asList(segments));
+		list.add(new Segment(changes.cursor(), 0));
+
+		while (list.size() >= MERGE_FACTOR) {
+			int from = list.size() - MERGE_FACTOR;
+			int level = list.get(from).level;
+			TermCursor[] cursors = new TermCursor[MERGE_FACTOR];
+			for (int i = 0; i < MERGE_FACTOR; i++) {
+				Segment segment = list.get(from + i);
+				if (segment.level != level) {
+					cursors = null;
+					break;
+				}
+				cursors[i] = segment.cursor();
+			}
+			if (cursors == null) {
+				break;
+			}
+			list.subList(from, list.size()).clear();
+			list.add(new Segment(new MergedCursor(cursors), level + 1));
+		}
+
+		return new IndexSnapshot(list.toArray(new Segment[list.size()]),
+				documents, generation + 1);
+	}
+
+	/**
+	 * Adds every document containing a word that starts with the query word to
+	 * the given results.
+	 *
+	 * @param word
+	 *            query word
+	 * @param tempResults
+	 *            results to add to
+	 */
+	public void partialSearch(String word, SearchAccumulator tempResults) {
+		if (segments.length == 1 || !tempResults.isScored()) {
+			for (Segment segment : segments) {
+				segment.partialSearch(word, tempResults);
+			}
+			return;
+		}
+		collect(word, false).addTo(tempResults);
+	}
+
+	/**
+	 * Adds every document containing exactly the query word to the given
+	 * results.
+	 *
+	 * @param word
+	 *            query word
+	 * @param tempResults
+	 *            results to add to
+	 */
+	public void exactSearch(String word, SearchAccumulator tempResults) {
+		ArrayList<TermPostings> parts = new ArrayList<TermPostings>();
+		for (Segment segment : segments) {
+			int ordinal = segment.dictionary.indexOf(word);
+			if (ordinal >= 0) {
+				parts.add(segment.postings[ordinal]);
+			}
+		}
+		tempResults.addAll(parts);
+	}
+
+	/**
+	 * Returns the matches of one query word, reading straight out of the
+	 * postings when only one word in one segment matches. Snapshots never
+	 * change, so the matches stay valid for as long as they are needed.
+	 *
+	 * @param word
+	 *            query word
+	 * @param exact
+	 *            <code>true</code> to match the word exactly
+	 * @return matched documents
+	 */
+	public Matches getMatches(String word, boolean exact) {
+		if (segments.length == 1) {
+			Segment segment = segments[0];
+			int ordinal = exact ? segment.dictionary.indexOf(word)
+					: segment.dictionary.indexOfPrefix(word);
+			if (ordinal >= 0) {
+				return Matches.of(segment.postings[ordinal],
+						documents.getScorer());
+			}
+		}
+		SearchAccumulator tempResults = new SearchAccumulator(documents);
+		if (exact) {
+			exactSearch(word, tempResults);
+		} else {
+			partialSearch(word, tempResults);
+		}
+		return tempResults.toMatchList();
+	}
+
+	/**
+	 * Returns the matches of every word of the snapshot that the query word
+	 * matches, read straight out of their postings. A word split over several
+	 * segments is read out of a copy of its combined postings.
+	 *
+	 * @param word
+	 *            query word
+	 * @param exact
+	 *            <code>true</code> to match the word exactly
+	 * @return matches of each word
+	 */
+	public ArrayList<Matches> getTermMatches(String word, boolean exact) {
+		return collect(word, exact).toMatches(documents.getScorer());
+	}
+
+	/**
+	 * Returns the matches of every word of the snapshot that each of the
+	 * sorted query words matches. With a single segment the prefixes are found
+	 * in one pass over its dictionary, otherwise each query word is looked up
+	 * on its own.
+	 *
+	 * @param words
+	 *            sorted query words without duplicates
+	 * @param exact
+	 *            <code>true</code> to match the words exactly
+	 * @return matches of each word of the snapshot, for each query word
+	 */
+	public ArrayList<ArrayList<Matches>> getTermMatches(String[] words,
+			boolean exact) {
+		ArrayList<ArrayList<Matches>> lists = new ArrayList<ArrayList<Matches>>();
+		if (exact || segments.length != 1) {
+			for (String word : words) {
+				lists.add(getTermMatches(word, exact));
+			}
+			return lists;
+		}
+
+		Segment segment = segments[0];
+		Scorer scorer = documents.getScorer();
+		for (int[] ordinals : segment.dictionary.indexOfPrefixes(words)) {
+			ArrayList<Matches> terms = new ArrayList<Matches>(ordinals.length);
+			for (int ordinal : ordinals) {
+				terms.add(Matches.of(segment.postings[ordinal], scorer));
+			}
+			lists.add(terms);
+		}
+		return lists;
+	}
+
+	/**
+	 * Returns the postings of exactly the given word.
+	 *
+	 * @param word
+	 *            query word
+	 * @return postings of the word, or <code>null</code>
+	 */
+	public TermPostings getPostings(String word) {
+		return collect(word, true).getPostings(word);
+	}
+
+	/**
+	 * Finds the postings in every segment of each word the query word
+	 * matches.
+	 *
+	 * @param word
+	 *            query word
+	 * @param exact
+	 *            <code>true</code> to match the word exactly
+	 * @return postings of each matched word, oldest segment first
+	 */
+	private TermParts collect(String word, boolean exact) {
+		TermParts terms = new TermParts();
+		for (Segment segment : segments) {
+			if (exact) {
+				int ordinal = segment.dictionary.indexOf(word);
+				if (ordinal >= 0) {
+					terms.add(word, segment.postings[ordinal]);
+				}
+				continue;
+			}
+			TermDictionary.Cursor cursor = segment.dictionary.seek(word);
+			while (cursor.isValid() && cursor.startsWith(word)) {
+				terms.add(cursor.getWord(),
+						segment.postings[cursor.getOrdinal()]);
+				cursor.next();
+			}
+		}
+		return terms;
+	}
+
+	/**
+	 * Returns a cursor over every word of this snapshot, combining the
+	 * postings of words split over several segments.
+	 *
+	 * @return cursor over the words
+	 */
+	private TermCursor cursor() {
+		if (segments.length == 1) {
+			return segments[0].cursor();
+		}
+		TermCursor[] cursors = new TermCursor[segments.length];
+		for (int i = 0; i < segments.length; i++) {
+			cursors[i] = segments[i].cursor();
+		}
+		return new MergedCursor(cursors);
+	}
+
+	/**
+	 * Prints every word, file and position of this snapshot to the file.
+	 *
+	 * @param filename
+	 */
+	public void printMap(String filename) {
+		try (MapWriter outputMap = new MapWriter(filename, documents)) {
+			TermCursor terms = cursor();
+			while (terms.next()) {
+				outputMap.writeWord(terms.getWord(), terms.getPostings());
+			}
+		} catch (IOException e) {
+			System.out.println("Your text file " + filename
+					+ " cannot be accessed.");
+		}
+	}
+
+	/**
+	 * Exports every word, file and position of this snapshot to the file.
+	 *
+	 * @param filename
+	 * @param encoder
+	 */
+	public void exportMap(String filename, ExportEncoder encoder) {
+		int[] ranks = documents.getRanks();
+		try (ExportEncoder output = encoder.open(filename)) {
+			TermCursor terms = cursor();
+			while (terms.next()) {
+				output.writeWord(terms.getWord(), terms.getPostings(),
+						documents, ranks);
+			}
+		} catch (IOException e) {
+			System.out.println("Your text file " + filename
+					+ " cannot be accessed.");
+		}
+	}
+
+	/**
+	 * Writes this snapshot to a binary {@link IndexSegment} file.
+	 *
+	 * @param filename
+	 */
+	public void saveSegment(String filename) {
+		try {
+			IndexSegment.write(cursor(), documents, filename);
+		} catch (IOException e) {
+			System.out.println("The index file " + filename
+					+ " could not be written out to.");
+		}
+	}
+
+	/**
+	 * One sealed, immutable part of a snapshot: a dictionary of its words and
+	 * their postings, stored at the ordinal of each word.
+	 */
+	private static class Segment {
+		private final TermDictionary dictionary;
+		private final TermPostings[] postings;
+		private final int level;
+
+		/**
+		 * Creates a segment out of every word read from the cursor.
+		 *
+		 * @param terms
+		 *            cursor over the words in sorted order
+		 * @param level
+		 *            number of times the words were merged
+		 */
+		public Segment(TermCursor terms, int level) {
+			ArrayList<String> words = new ArrayList<String>();
+			ArrayList<TermPostings> merged = new ArrayList<TermPostings>();
+			while (terms.next()) {
+				words.add(terms.getWord());
+				merged.add(terms.getPostings());
+			}
+			this.dictionary = new TermDictionary(words);
+			this.postings = merged.toArray(new TermPostings[merged.size()]);
+			this.level = level;
+		}
+
+		/**
+		 * Adds every document containing a word that starts with the query
+		 * word to the given results.
+		 *
+		 * @param word
+		 * @param tempResults
+		 */
+		public void partialSearch(String word, SearchAccumulator tempResults) {
+			TermDictionary.Cursor cursor = dictionary.seek(word);
+			while (cursor.isValid() && cursor.startsWith(word)) {
+				tempResults.addAll(postings[cursor.getOrdinal()]);
+				cursor.next();
+			}
+		}
+
+		/**
+		 * Returns a cursor over the words of this segment.
+		 *
+		 * @return cursor over the words
+		 */
+		public TermCursor cursor() {
+			final TermDictionary.Cursor cursor = dictionary.cursor();
+			return new TermCursor() {
+				@Override
+				public boolean next() {
+					return cursor.next();
+				}
+
+				@Override
+				public String getWord() {
+					return cursor.getWord();
+				}
+
+				@Override
+				public TermPostings getPostings() {
+					return postings[cursor.getOrdinal()];
+				}
+			};
+		}
+	}
+}
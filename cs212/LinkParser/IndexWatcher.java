@@ -0,0 +1,262 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Keeps an index up to date with the files it was built from. Every directory
+ * traversed by the {@link InvertedIndexBuilder} is registered with a
+ * {@link WatchService}. Events are collected until no new ones arrive for a
+ * short while, so a file that is saved several times in a row is only parsed
+ * once, and then only the files that were created, changed or deleted are
+ * parsed again with {@link InvertedIndexBuilder#reindex}. Keeping the index
+ * fresh costs the number of changed files rather than the size of the whole
+ * corpus.
+ *
+ * @author Paul Hundal
+ *
+ */
+public class IndexWatcher {
+
+	/** The default number of seconds to watch for. */
+	public static final int DEFAULT = 60;
+
+	/** Milliseconds without events before a batch of changes is indexed. */
+	public static final long DEBOUNCE = 500;
+
+	private static Logger log = LogManager.getLogger();
+
+	private final InvertedIndexBuilder builder;
+	private final InvertedIndex index;
+	private final String extension;
+	private final HashMap<WatchKey, Path> directories;
+	private final TreeSet<Path> files;
+	private WatchService service;
+	private String output;
+	private ExportEncoder encoder;
+
+	/**
+	 * Creates a watcher for the files the builder already added to the index.
+	 *
+	 * @param builder
+	 *            builder that traversed the directories
+	 * @param index
+	 *            index built from the files
+	 * @param extension
+	 *            extension of the files to index
+	 */
+	public IndexWatcher(InvertedIndexBuilder builder, InvertedIndex index,
+			String extension) {
+		this.builder = builder;
+		this.index = index;
+		this.extension = extension;
+		this.directories = new HashMap<WatchKey, Path>();
+		this.files = new TreeSet<Path>();
+		this.service = null;
+		this.output = null;
+		this.encoder = null;
+	}
+
+	/**
+	 * Sets the file the index is printed to again after every batch of
+	 * changes.
+	 *
+	 * @param filename
+	 *            file to print to, or <code>null</code> to not print
+	 */
+	public void setOutput(String filename) {
+		setOutput(filename, null);
+	}
+
+	/**
+	 * Sets the file the index is exported to again after every batch of
+	 * changes.
+	 *
+	 * @param filename
+	 *            file to export to, or <code>null</code> to not export
+	 * @param encoder
+	 *            export encoder, or <code>null</code> to print text
+	 */
+	public void setOutput(String filename, ExportEncoder encoder) {
+		this.output = filename;
+		this.encoder = encoder;
+	}
+
+	/**
+	 * Watches the directories and indexes changes until the time is up.
+	 *
+	 * @param seconds
+	 *            how long to watch for
+	 */
+	public void watch(long seconds) {
+		long deadline = System.currentTimeMillis()
+				+ TimeUnit.SECONDS.toMillis(seconds);
+
+		try (WatchService watchService = FileSystems.getDefault()
+				.newWatchService()) {
+			service = watchService;
+			files.addAll(builder.getPaths());
+			for (Path directory : builder.getDirectories()) {
+				register(directory);
+			}
+			log.info("Watching {} directories.", directories.size());
+
+			long wait = deadline - System.currentTimeMillis();
+			WatchKey key = wait > 0 ? service.poll(wait, TimeUnit.MILLISECONDS)
+					: null;
+			while (key != null) {
+				TreeSet<Path> changed = new TreeSet<Path>();
+				while (key != null) {
+					collect(key, changed);
+					key = System.currentTimeMillis() < deadline ? service
+							.poll(DEBOUNCE, TimeUnit.MILLISECONDS) : null;
+				}
+				update(changed);
+				wait = deadline - System.currentTimeMillis();
+				key = wait > 0 ? service.poll(wait, TimeUnit.MILLISECONDS)
+						: null;
+			}
+		} catch (IOException e) {
+			System.out.println("The directories could not be watched.");
+		} catch (InterruptedException e) {
+			log.debug("Watching interrupted", e);
+		} finally {
+			directories.clear();
+			service = null;
+		}
+	}
+
+	/**
+	 * Registers a directory with the watch service.
+	 *
+	 * @param directory
+	 */
+	private void register(Path directory) {
+		try {
+			WatchKey key = directory.register(service,
+					StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_DELETE,
+					StandardWatchEventKinds.ENTRY_MODIFY);
+			directories.put(key, directory);
+		} catch (IOException e) {
+			log.warn("Unable to watch {}", directory);
+		}
+	}
+
+	/**
+	 * Adds the file of every event of the key to the changed files. A new
+	 * directory is registered and its files are added, and a deleted
+	 * directory adds every file that was indexed under it.
+	 *
+	 * @param key
+	 * @param changed
+	 */
+	private void collect(WatchKey key, TreeSet<Path> changed) {
+		Path directory = directories.get(key);
+		if (directory == null) {
+			key.cancel();
+			return;
+		}
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				log.warn("Events were lost, checking every file.");
+				changed.addAll(files);
+				for (Path watched : new ArrayList<Path>(
+						directories.values())) {
+					scan(watched, changed);
+				}
+				continue;
+			}
+
+			Path path = directory.resolve((Path) event.context());
+			if (Files.isDirectory(path)) {
+				if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+					scan(path, changed);
+				}
+			} else if (path.toString().toLowerCase().endsWith(extension)) {
+				changed.add(path);
+			} else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+				for (Path file : files) {
+					if (file.startsWith(path)) {
+						changed.add(file);
+					}
+				}
+			}
+		}
+		if (!key.reset()) {
+			directories.remove(key);
+		}
+	}
+
+	/**
+	 * Registers a directory and everything below it, and adds every file in
+	 * them to the changed files.
+	 *
+	 * @param directory
+	 * @param changed
+	 */
+	private void scan(Path directory, TreeSet<Path> changed) {
+		register(directory);
+		try (DirectoryStream<Path> stream = Files
+				.newDirectoryStream(directory)) {
+			for (Path path : stream) {
+				if (Files.isDirectory(path)) {
+					scan(path, changed);
+				} else if (Files.isReadable(path)
+						&& path.toString().toLowerCase().endsWith(extension)) {
+					changed.add(path);
+				}
+			}
+		} catch (IOException e) {
+			log.warn("Unable to scan {}", directory);
+		}
+	}
+
+	/**
+	 * Parses the changed files again, seals the index and prints or exports
+	 * it if there is an output file. A file that came and went between two
+	 * batches was never indexed, so it is skipped.
+	 *
+	 * @param changed
+	 */
+	private void update(TreeSet<Path> changed) {
+		TreeSet<Path> reindexed = new TreeSet<Path>();
+		for (Path file : changed) {
+			if (files.contains(file) || Files.isReadable(file)) {
+				reindexed.add(file);
+			}
+		}
+		if (reindexed.isEmpty()) {
+			return;
+		}
+
+		builder.reindex(reindexed, index);
+		for (Path file : reindexed) {
+			if (Files.isReadable(file)) {
+				files.add(file);
+			} else {
+				files.remove(file);
+			}
+		}
+		index.seal();
+		log.info("Indexed {} changed files.", reindexed.size());
+
+		if (output != null && encoder != null) {
+			index.exportMap(output, encoder);
+		} else if (output != null) {
+			index.printMap(output);
+		}
+	}
+}
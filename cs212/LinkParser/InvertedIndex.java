@@ -1,12 +1,11 @@
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 
 import org.apache.logging.log4j.LogManager;
@@ -18,22 +17,115 @@ import org.apache.logging.log4j.Logger;
  * file names and the positions of the word in that file. We take our parameter
  * input from the file parser and store these keys and values in a tree map
  * called invertedIndex. Once the map is full, we print the map out to a file.
+ * Files are stored as integer ids from a {@link DocumentTable}, which is shared
+ * by every local index that is later added in to this one. Once indexing is
+ * finished the index can be sealed, which moves the words in to a compact
+ * {@link TermDictionary} for faster prefix searches.
+ * 
+ * Documents can be removed or replaced without walking every word. A removed
+ * document only gets a tombstone in the document table, and searches skip its
+ * postings until {@link #compact()} drops them for good.
  * 
  * @author Paul Hundal
  * 
  */
-public class InvertedIndex {
+public class InvertedIndex implements WritableIndex {
+
+	/** Sealing compacts once one document in this many has been removed. */
+	public static final int COMPACT = 10;
 
-	private final TreeMap<String, TreeMap<String, ArrayList<Integer>>> invertedIndex;
+	private final TreeMap<String, TermPostings> invertedIndex;
+	private final DocumentTable documents;
+	private TermDictionary dictionary;
+	private TermPostings[] sealed;
+	private PrefixAggregates aggregates;
+	private int prefixLength;
+	private volatile long generation;
+	private WorkQueue workers;
+	private final HashSet<Integer> tombstones;
 	private static Logger log = LogManager.getLogger();
 	private Lock lock;
 
 	public InvertedIndex() {
+		this(new DocumentTable());
+	}
+
+	/**
+	 * Creates an index that stores its files in the given document table. Any
+	 * index passed to {@link #addAll(InvertedIndex)} must share this table.
+	 * 
+	 * @param documents
+	 */
+	public InvertedIndex(DocumentTable documents) {
+		this(documents, new Lock());
+	}
+
+	/**
+	 * Creates an index guarded by the given lock. Passing an
+	 * {@link OptimisticLock} lets searches and printing of a sealed index run
+	 * without taking the read lock.
+	 * 
+	 * @param documents
+	 * @param lock
+	 */
+	public InvertedIndex(DocumentTable documents, Lock lock) {
 		invertedIndex = new TreeMap<>();
-		lock = new Lock();
+		this.documents = documents;
+		dictionary = null;
+		sealed = null;
+		aggregates = null;
+		prefixLength = 0;
+		generation = 0;
+		workers = null;
+		tombstones = new HashSet<Integer>();
+		this.lock = lock;
 		log.info("Building my inverted index.");
 	}
 
+	/**
+	 * Sets the work queue used to format a sealed index on several threads
+	 * when it is printed, with a {@link ParallelMapWriter}.
+	 * 
+	 * @param workers
+	 *            work queue, or <code>null</code> to print on one thread
+	 */
+	public void setWorkers(WorkQueue workers) {
+		this.workers = workers;
+	}
+
+	/**
+	 * Sets the length of the longest prefix whose search totals are
+	 * precomputed in a {@link PrefixAggregates} table every time the index is
+	 * sealed. A length of zero turns the table off.
+	 * 
+	 * @param prefixLength
+	 */
+	public void setPrefixLength(int prefixLength) {
+		lock.acquireWriteLock();
+		this.prefixLength = prefixLength;
+		aggregates = null;
+		if (dictionary != null && prefixLength > 0) {
+			aggregates = new PrefixAggregates(dictionary, sealed, documents,
+					prefixLength);
+		}
+		lock.releaseWriteLock();
+	}
+
+	/**
+	 * Returns the document table used to map files to document ids.
+	 * 
+	 * @return document table
+	 */
+	@Override
+	public DocumentTable getDocuments() {
+		return documents;
+	}
+
+	@Override
+	public long getGeneration() {
+		return generation;
+	}
+
 	/**
 	 * The purpose of this method is to take in the input from file parser for 3
 	 * different things. We want the actual word, the file that word is located
@@ -44,46 +136,507 @@ public class InvertedIndex {
 	 * of each new location.
 	 */
 	public void addWord(String word, String file, int position) {
-		lock.acquireWriteLock();
-		if (!invertedIndex.containsKey(word)) {
-			invertedIndex.put(word, new TreeMap<String, ArrayList<Integer>>());
-			invertedIndex.get(word).put(file, new ArrayList<Integer>());
+		addWord(word, documents.getId(file), position);
+	}
 
-		} else if (invertedIndex.containsKey(word)
-				&& !invertedIndex.get(word).containsKey(file)) {
-			invertedIndex.get(word).put(file, new ArrayList<Integer>());
+	/**
+	 * Adds a word using a document id already looked up in the document table.
+	 * 
+	 * @param word
+	 * @param document
+	 * @param position
+	 */
+	public void addWord(String word, int document, int position) {
+		lock.acquireWriteLock();
+		unseal();
+		generation++;
+		TermPostings postings = invertedIndex.get(word);
+		if (postings == null) {
+			postings = new TermPostings();
+			invertedIndex.put(word, postings);
 		}
-		invertedIndex.get(word).get(file).add(position);
+		postings.add(document, position);
 		lock.releaseWriteLock();
 	}
 
+	@Override
 	public void addAll(InvertedIndex globalIndex) {
 		lock.acquireWriteLock();
-		for (String word : globalIndex.invertedIndex.keySet()) {
-			if (!invertedIndex.containsKey(word)) {
-				invertedIndex.put(word, globalIndex.invertedIndex.get(word));
+		unseal();
+		generation++;
+		globalIndex.visit(new TermVisitor() {
+			@Override
+			public void visit(String word, TermPostings other) {
+				TermPostings postings = invertedIndex.get(word);
+				if (postings == null) {
+					invertedIndex.put(word, other);
+				} else {
+					postings.addAll(other);
+				}
+			}
+		});
+		lock.releaseWriteLock();
+	}
+
+	/**
+	 * Removes a document from the index. The document only gets a tombstone,
+	 * so this takes the same time no matter how many words the index holds.
+	 * 
+	 * @param path
+	 *            file path or URL of the document
+	 * @return <code>true</code> if the document was in the index
+	 */
+	public boolean removeDocument(String path) {
+		int document = documents.lookup(path);
+		if (document < 0) {
+			return false;
+		}
+		lock.acquireWriteLock();
+		generation++;
+		documents.remove(document);
+		tombstones.add(document);
+		lock.releaseWriteLock();
+		return true;
+	}
+
+	/**
+	 * Replaces a document with the new version in a local index.
+	 * 
+	 * @param path
+	 *            file path or URL of the document
+	 * @param localIndex
+	 *            index holding only the new version of the document
+	 * @see #replaceDocuments(Map)
+	 */
+	public void replaceDocument(String path, InvertedIndex localIndex) {
+		replaceDocuments(Collections.singletonMap(path, localIndex));
+	}
+
+	/**
+	 * Replaces documents with the new versions in local indexes in one step
+	 * under the write lock, so a search sees either the old or the new version
+	 * of each document but never both. Every local index has its own document
+	 * table holding only the new version of its path. The path is given a new
+	 * id with {@link DocumentTable#renew(String)}, the postings and length of
+	 * the local index are added under that id, and the old version, if there
+	 * was one, only gets a tombstone. A path missing from its local index is
+	 * simply removed.
+	 * 
+	 * The new postings of a sealed index are copied before they change, so
+	 * matches still being read from the old postings are not disturbed. A
+	 * sealed index stays sealed if every added word is already in the
+	 * dictionary, and is unsealed like {@link #addAll(InvertedIndex)}
+	 * otherwise.
+	 * 
+	 * @param versions
+	 *            local index of the new version of each path, which should
+	 *            not be used afterwards
+	 */
+	public void replaceDocuments(Map<String, InvertedIndex> versions) {
+		final TreeMap<String, TermPostings> added = new TreeMap<>();
+		ArrayList<Integer> removed = new ArrayList<Integer>(versions.size());
+
+		for (Map.Entry<String, InvertedIndex> version : versions.entrySet()) {
+			String path = version.getKey();
+			DocumentTable local = version.getValue().getDocuments();
+			final int source = local.lookup(path);
+			int previous = documents.lookup(path);
+			if (previous >= 0) {
+				removed.add(previous);
+			}
+			if (source < 0) {
+				continue;
+			}
+
+			final int document = documents.renew(path);
+			documents.addLength(document, local.getLengths()[source]);
+			version.getValue().visit(new TermVisitor() {
+				@Override
+				public void visit(String word, TermPostings postings) {
+					int index = postings.indexOf(source);
+					if (index >= 0) {
+						TermPostings renumbered = added.get(word);
+						if (renumbered == null) {
+							renumbered = new TermPostings();
+							added.put(word, renumbered);
+						}
+						renumbered.add(document, postings.getPositions(index));
+					}
+				}
+			});
+		}
+
+		lock.acquireWriteLock();
+		generation++;
+		if (dictionary != null && !addSealed(added)) {
+			unseal();
+		}
+		if (dictionary == null) {
+			for (Map.Entry<String, TermPostings> entry : added.entrySet()) {
+				TermPostings postings = invertedIndex.get(entry.getKey());
+				if (postings == null) {
+					invertedIndex.put(entry.getKey(), entry.getValue());
+				} else {
+					postings.addAll(entry.getValue());
+				}
+			}
+		}
+		for (int document : removed) {
+			documents.remove(document);
+			tombstones.add(document);
+		}
+		lock.releaseWriteLock();
+		log.debug("Replaced {} documents.", versions.size());
+	}
+
+	/**
+	 * Adds postings to a sealed index without unsealing it, as long as every
+	 * word is already in the dictionary. The precomputed prefix totals are
+	 * dropped until the index is sealed again. Must be called while holding
+	 * the write lock.
+	 * 
+	 * @param added
+	 * @return <code>false</code> if nothing was added because the index has to
+	 *         be unsealed first
+	 */
+	private boolean addSealed(TreeMap<String, TermPostings> added) {
+		int[] ordinals = new int[added.size()];
+		int i = 0;
+		for (String word : added.keySet()) {
+			ordinals[i] = dictionary.indexOf(word);
+			if (ordinals[i++] < 0) {
+				return false;
+			}
+		}
+
+		Set<Integer> none = Collections.emptySet();
+		i = 0;
+		for (TermPostings postings : added.values()) {
+			int ordinal = ordinals[i++];
+			sealed[ordinal] = sealed[ordinal].replace(none, postings);
+		}
+		aggregates = null;
+		return true;
+	}
+
+	/**
+	 * Drops the postings of every removed document and every word left
+	 * without documents, walking every word once under the write lock. This
+	 * is done when the index is printed or saved, and when it is sealed with
+	 * enough removed documents to be worth it.
+	 */
+	public void compact() {
+		lock.acquireReadLock();
+		boolean removed = !tombstones.isEmpty();
+		lock.releaseReadLock();
+
+		if (removed) {
+			lock.acquireWriteLock();
+			compactPostings();
+			lock.releaseWriteLock();
+		}
+	}
+
+	/**
+	 * Drops the postings of every removed document. Must be called while
+	 * holding the write lock.
+	 */
+	private void compactPostings() {
+		if (!tombstones.isEmpty()) {
+			if (dictionary != null) {
+				ArrayList<String> words = new ArrayList<String>(sealed.length);
+				ArrayList<TermPostings> kept = new ArrayList<TermPostings>(
+						sealed.length);
+				TermDictionary.Cursor cursor = dictionary.cursor();
+				while (cursor.next()) {
+					TermPostings postings = sealed[cursor.getOrdinal()].replace(
+							tombstones, null);
+					if (postings.size() > 0) {
+						words.add(cursor.getWord());
+						kept.add(postings);
+					}
+				}
+				if (words.size() < sealed.length) {
+					dictionary = new TermDictionary(words);
+				}
+				sealed = kept.toArray(new TermPostings[kept.size()]);
+				if (aggregates != null) {
+					aggregates = new PrefixAggregates(dictionary, sealed,
+							documents, prefixLength);
+				}
 			} else {
-				for (String allpaths : globalIndex.invertedIndex.get(word)
-						.keySet()) {
-					TreeMap<String, ArrayList<Integer>> indexmap = invertedIndex
-							.get(word);
-					if (!indexmap.containsKey(allpaths)) {
-						indexmap.put(
-								allpaths,
-								globalIndex.invertedIndex.get(word).get(
-										allpaths));
+				Iterator<Map.Entry<String, TermPostings>> entries = invertedIndex
+						.entrySet().iterator();
+				while (entries.hasNext()) {
+					Map.Entry<String, TermPostings> entry = entries.next();
+					TermPostings postings = entry.getValue().replace(
+							tombstones, null);
+					if (postings.size() == 0) {
+						entries.remove();
 					} else {
-						ArrayList<Integer> position = indexmap.get(allpaths);
-						position.addAll(globalIndex.invertedIndex.get(word)
-								.get(allpaths));
+						entry.setValue(postings);
 					}
 				}
+			}
+			log.info("Compacted {} removed documents.", tombstones.size());
+			tombstones.clear();
+		}
+	}
+
+	/**
+	 * Returns the matches of a word read straight out of its postings. If
+	 * documents were removed but not compacted yet, the matches skip them as
+	 * they are walked instead of the postings being copied without them, and
+	 * the word is weighted by the documents left. Must be called while
+	 * holding the read lock.
+	 * 
+	 * @param postings
+	 * @param scorer
+	 *            scorer of each document, or <code>null</code>
+	 * @return matches backed by the postings
+	 */
+	private Matches matches(TermPostings postings, Scorer scorer) {
+		if (tombstones.isEmpty()) {
+			return Matches.of(postings, scorer);
+		}
+		int documentFrequency = scorer != null ? postings.liveSize(documents)
+				: postings.size();
+		return Matches.live(Matches.of(postings, scorer, documentFrequency),
+				documents);
+	}
+
+	/**
+	 * Merges two indexes in to a new sealed index by walking both sorted word
+	 * lists side by side, the same way merge sort combines two sorted halves.
+	 * A file found in both keeps the positions of the left index first. Both
+	 * indexes are sealed first and must not be used afterwards, since their
+	 * postings are moved in to the result.
+	 * 
+	 * @param left
+	 * @param right
+	 *            index using the same document table as left
+	 * @return sealed index holding the words of both
+	 */
+	public static InvertedIndex merge(InvertedIndex left, InvertedIndex right) {
+		left.compact();
+		right.compact();
+		left.seal();
+		right.seal();
 
+		int capacity = left.sealed.length + right.sealed.length;
+		ArrayList<String> words = new ArrayList<String>(capacity);
+		ArrayList<TermPostings> postings = new ArrayList<TermPostings>(
+				capacity);
+
+		TermDictionary.Cursor a = left.dictionary.cursor();
+		TermDictionary.Cursor b = right.dictionary.cursor();
+		String wordA = a.next() ? a.getWord() : null;
+		String wordB = b.next() ? b.getWord() : null;
+
+		while (wordA != null || wordB != null) {
+			int compare = wordA == null ? 1 : wordB == null ? -1 : wordA
+					.compareTo(wordB);
+			if (compare <= 0) {
+				TermPostings combined = left.sealed[a.getOrdinal()];
+				if (compare == 0) {
+					combined.addAll(right.sealed[b.getOrdinal()]);
+					wordB = b.next() ? b.getWord() : null;
+				}
+				words.add(wordA);
+				postings.add(combined);
+				wordA = a.next() ? a.getWord() : null;
+			} else {
+				words.add(wordB);
+				postings.add(right.sealed[b.getOrdinal()]);
+				wordB = b.next() ? b.getWord() : null;
 			}
 		}
+
+		InvertedIndex merged = new InvertedIndex(left.documents);
+		merged.dictionary = new TermDictionary(words);
+		merged.sealed = postings.toArray(new TermPostings[postings.size()]);
+		return merged;
+	}
+
+	/**
+	 * Adds a copy of every word, file and position of the other index to this
+	 * one. Unlike {@link #addAll(InvertedIndex)} the other index is left
+	 * untouched and shares nothing with this one, so it can keep being
+	 * searched while the copy is made.
+	 * 
+	 * @param other
+	 *            index using the same document table
+	 */
+	public void copyAll(InvertedIndex other) {
+		lock.acquireWriteLock();
+		unseal();
+		generation++;
+		other.visit(new TermVisitor() {
+			@Override
+			public void visit(String word, TermPostings postings) {
+				copyWord(word, postings);
+			}
+		});
 		lock.releaseWriteLock();
 	}
 
+	/**
+	 * Hands every word and its postings to the visitor in sorted order, while
+	 * holding the read lock. The visitor must not change the postings. Removed
+	 * documents are compacted away first.
+	 * 
+	 * @param visitor
+	 */
+	public void visit(TermVisitor visitor) {
+		compact();
+		lock.acquireReadLock();
+		if (dictionary != null) {
+			TermDictionary.Cursor cursor = dictionary.cursor();
+			while (cursor.next()) {
+				visitor.visit(cursor.getWord(), sealed[cursor.getOrdinal()]);
+			}
+		} else {
+			for (String word : invertedIndex.keySet()) {
+				visitor.visit(word, invertedIndex.get(word));
+			}
+		}
+		lock.releaseReadLock();
+	}
+
+	/**
+	 * Returns a cursor over every word and its postings in sorted order.
+	 * Removed documents are compacted away first. The index must not change
+	 * while the cursor is in use, which holds for a sealed segment that is
+	 * never written to again.
+	 * 
+	 * @return cursor placed before the first word
+	 */
+	public TermCursor cursor() {
+		compact();
+		lock.acquireReadLock();
+		TermCursor cursor;
+		if (dictionary != null) {
+			final TermDictionary.Cursor words = dictionary.cursor();
+			final TermPostings[] postings = sealed;
+			cursor = new TermCursor() {
+				@Override
+				public boolean next() {
+					return words.next();
+				}
+
+				@Override
+				public String getWord() {
+					return words.getWord();
+				}
+
+				@Override
+				public TermPostings getPostings() {
+					return postings[words.getOrdinal()];
+				}
+			};
+		} else {
+			final Iterator<Map.Entry<String, TermPostings>> entries = invertedIndex
+					.entrySet().iterator();
+			cursor = new TermCursor() {
+				private Map.Entry<String, TermPostings> entry;
+
+				@Override
+				public boolean next() {
+					entry = entries.hasNext() ? entries.next() : null;
+					return entry != null;
+				}
+
+				@Override
+				public String getWord() {
+					return entry.getKey();
+				}
+
+				@Override
+				public TermPostings getPostings() {
+					return entry.getValue();
+				}
+			};
+		}
+		lock.releaseReadLock();
+		return cursor;
+	}
+
+	/**
+	 * Adds a copy of the postings of one word. Must be called while holding
+	 * the write lock.
+	 * 
+	 * @param word
+	 * @param source
+	 */
+	private void copyWord(String word, TermPostings source) {
+		TermPostings postings = invertedIndex.get(word);
+		if (postings == null) {
+			postings = new TermPostings();
+			invertedIndex.put(word, postings);
+		}
+		postings.copyAll(source);
+	}
+
+	/**
+	 * Moves every word in to a front-coded {@link TermDictionary}, with the
+	 * postings of each word stored in an array at the ordinal of the word.
+	 * The tree map is emptied so its nodes can be collected. Searches and
+	 * printing work the same on a sealed index, and adding a word unseals it
+	 * again. Removed documents are compacted away once at least one document
+	 * in {@link #COMPACT} has been removed.
+	 */
+	@Override
+	public void seal() {
+		lock.acquireWriteLock();
+		if (!tombstones.isEmpty()
+				&& tombstones.size() * COMPACT >= documents.size()) {
+			compactPostings();
+		}
+		if (dictionary == null) {
+			dictionary = new TermDictionary(invertedIndex.keySet());
+			sealed = invertedIndex.values().toArray(
+					new TermPostings[invertedIndex.size()]);
+			invertedIndex.clear();
+			log.info("Sealed {} words in to the term dictionary.",
+					dictionary.size());
+		}
+		if (aggregates == null && prefixLength > 0) {
+			aggregates = new PrefixAggregates(dictionary, sealed, documents,
+					prefixLength);
+			log.info("Precomputed totals of {} prefixes.", aggregates.size());
+		}
+		lock.releaseWriteLock();
+	}
+
+	/**
+	 * Checks if the index is sealed.
+	 * 
+	 * @return <code>true</code> if the words are in a term dictionary
+	 */
+	public boolean isSealed() {
+		lock.acquireReadLock();
+		boolean isSealed = dictionary != null;
+		lock.releaseReadLock();
+		return isSealed;
+	}
+
+	/**
+	 * Puts the words of a sealed index back in to the tree map. Must be called
+	 * while holding the write lock.
+	 */
+	private void unseal() {
+		if (dictionary != null) {
+			TermDictionary.Cursor cursor = dictionary.cursor();
+			while (cursor.next()) {
+				invertedIndex.put(cursor.getWord(),
+						sealed[cursor.getOrdinal()]);
+			}
+			dictionary = null;
+			sealed = null;
+			aggregates = null;
+		}
+	}
+
 	/**
 	 * The partial search method that takes in the line of partial search
 	 * results and returns the list of sorted results.
@@ -92,81 +645,466 @@ public class InvertedIndex {
 	 * @param threads
 	 * @return
 	 */
-	public ArrayList<SearchResults> partialSearch(ArrayList<String> querywords) {
-		ArrayList<SearchResults> finalResults = new ArrayList<SearchResults>();
-		HashMap<String, SearchResults> tempResults = new HashMap<String, SearchResults>();
+	@Override
+	public ArrayList<SearchResults> partialSearch(ArrayList<String> querywords,
+			int limit) {
+		SearchAccumulator tempResults = new SearchAccumulator(documents);
 
 		for (String word : querywords) {
-			lock.acquireReadLock();
+			partialSearch(word, tempResults);
+		}
+		return tempResults.getResults(documents, limit);
+	}
+
+	@Override
+	public ArrayList<SearchResults> partialSearch(ArrayList<String> querywords) {
+		return partialSearch(querywords, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Adds every document containing a word that starts with the query word to
+	 * the given results. Used to add up unscored results across several
+	 * indexes that share a document table. Scores use the number of documents
+	 * containing each word in this index alone, so a scored search across
+	 * several indexes goes through {@link #collectTerms} instead.
+	 * 
+	 * @param word
+	 *            query word
+	 * @param tempResults
+	 *            results to add to
+	 */
+	public void partialSearch(String word, SearchAccumulator tempResults) {
+		if (optimisticSearch(word, tempResults)) {
+			return;
+		}
+
+		lock.acquireReadLock();
+		if (aggregates != null && !tempResults.isScored()
+				&& aggregates.covers(word)) {
+			aggregates.addTo(word, tempResults);
+		} else if (dictionary != null) {
+			TermDictionary.Cursor cursor = dictionary.seek(word);
+			while (cursor.isValid() && cursor.startsWith(word)) {
+				tempResults.addAll(sealed[cursor.getOrdinal()]);
+				cursor.next();
+			}
+		} else {
 			for (String searchword : invertedIndex.tailMap(word).keySet()) {
 				if (!searchword.startsWith(word)) {
 					break;
 				} else {
-					for (String paths : invertedIndex.get(searchword).keySet()) {
-						if (tempResults.containsKey(paths)) {
-							int freqsize = invertedIndex.get(searchword)
-									.get(paths).size();
-							tempResults.get(paths).addFrequency(freqsize);
-							tempResults.get(paths).setPosition(
-									invertedIndex.get(searchword).get(paths)
-											.get(0));
-
-						} else {
-
-							int freqsize = invertedIndex.get(searchword)
-									.get(paths).size();
-							tempResults.put(paths, new SearchResults(paths,
-									freqsize, invertedIndex.get(searchword)
-											.get(paths).get(0)));
-						}
+					tempResults.addAll(invertedIndex.get(searchword));
+				}
+			}
+		}
+		lock.releaseReadLock();
+	}
 
-					}
+	/**
+	 * Returns the sorted results of every document containing one of the query
+	 * words exactly. A sealed index finds each word through the hash table of
+	 * its dictionary.
+	 * 
+	 * @param querywords
+	 * @return sorted list of search results
+	 */
+	@Override
+	public ArrayList<SearchResults> exactSearch(ArrayList<String> querywords,
+			int limit) {
+		SearchAccumulator tempResults = new SearchAccumulator(documents);
+
+		for (String word : querywords) {
+			exactSearch(word, tempResults);
+		}
+		return tempResults.getResults(documents, limit);
+	}
+
+	@Override
+	public ArrayList<SearchResults> exactSearch(ArrayList<String> querywords) {
+		return exactSearch(querywords, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Adds every document containing exactly the query word to the given
+	 * results.
+	 * 
+	 * @param word
+	 *            query word
+	 * @param tempResults
+	 *            results to add to
+	 */
+	public void exactSearch(String word, SearchAccumulator tempResults) {
+		lock.acquireReadLock();
+		TermPostings postings;
+		if (dictionary != null) {
+			int ordinal = dictionary.indexOf(word);
+			postings = ordinal >= 0 ? sealed[ordinal] : null;
+		} else {
+			postings = invertedIndex.get(word);
+		}
+		if (postings != null) {
+			tempResults.addAll(postings);
+		}
+		lock.releaseReadLock();
+	}
+
+	/**
+	 * Adds the postings of every word the query word matches to the terms
+	 * collected from other indexes sharing the document table, so that a word
+	 * split over several indexes can be scored once across all of them.
+	 * 
+	 * @param word
+	 *            query word
+	 * @param exact
+	 *            <code>true</code> to match the word exactly
+	 * @param terms
+	 *            terms to add to
+	 */
+	public void collectTerms(String word, boolean exact, TermParts terms) {
+		lock.acquireReadLock();
+		if (exact) {
+			TermPostings postings;
+			if (dictionary != null) {
+				int ordinal = dictionary.indexOf(word);
+				postings = ordinal >= 0 ? sealed[ordinal] : null;
+			} else {
+				postings = invertedIndex.get(word);
+			}
+			if (postings != null) {
+				terms.add(word, postings);
+			}
+		} else if (dictionary != null) {
+			TermDictionary.Cursor cursor = dictionary.seek(word);
+			while (cursor.isValid() && cursor.startsWith(word)) {
+				terms.add(cursor.getWord(), sealed[cursor.getOrdinal()]);
+				cursor.next();
+			}
+		} else {
+			for (Map.Entry<String, TermPostings> entry : invertedIndex
+					.tailMap(word).entrySet()) {
+				if (!entry.getKey().startsWith(word)) {
+					break;
 				}
+				terms.add(entry.getKey(), entry.getValue());
+			}
+		}
+		lock.releaseReadLock();
+	}
 
+	/**
+	 * Returns the matches of one query word. If the index is sealed and only
+	 * one of its words matches, the matches read straight out of the postings
+	 * of that word, so an intersection with a rare word never copies the
+	 * postings of a common one.
+	 */
+	@Override
+	public Matches getMatches(String word, boolean exact) {
+		Matches single = null;
+		lock.acquireReadLock();
+		if (dictionary != null) {
+			int ordinal = exact ? dictionary.indexOf(word) : dictionary
+					.indexOfPrefix(word);
+			if (ordinal >= 0) {
+				single = matches(sealed[ordinal], documents.getScorer());
 			}
-			lock.releaseReadLock();
 		}
-		finalResults.addAll(tempResults.values());
-		Collections.sort(finalResults);
-		return finalResults;
+		lock.releaseReadLock();
+
+		if (single != null) {
+			return single;
+		}
+		SearchAccumulator tempResults = new SearchAccumulator(documents);
+		if (exact) {
+			exactSearch(word, tempResults);
+		} else {
+			partialSearch(word, tempResults);
+		}
+		return tempResults.toMatchList();
 	}
 
 	/**
-	 * The purpose of this method is to create a print out to a file of our map.
-	 * We create a buffer to write out each, and pass the file we want to write
-	 * out to our buffered writer. We then iterate each word, file, and position
-	 * and print out each of these three elements to our file. Note: We must
-	 * produce spaces and correct formatted lines in order to get exact output
-	 * we desire. It is necessary to close and flush the map.
+	 * Reads the matches of each word straight out of its postings once the
+	 * index is sealed. Before that the postings may still grow, so the words
+	 * are added up in to one list like {@link #getMatches(String, boolean)}.
 	 */
-	public void printMap(String filename) {
+	@Override
+	public ArrayList<Matches> getTermMatches(String word, boolean exact) {
+		ArrayList<Matches> lists = new ArrayList<Matches>();
+		Scorer scorer = documents.getScorer();
 		lock.acquireReadLock();
-		Path path = Paths.get(filename);
-		try (BufferedWriter outputMap = Files.newBufferedWriter(path,
-				Charset.forName("UTF-8"));
+		boolean sealedIndex = dictionary != null;
+		if (sealedIndex && exact) {
+			int ordinal = dictionary.indexOf(word);
+			if (ordinal >= 0) {
+				lists.add(matches(sealed[ordinal], scorer));
+			}
+		} else if (sealedIndex) {
+			TermDictionary.Cursor cursor = dictionary.seek(word);
+			while (cursor.isValid() && cursor.startsWith(word)) {
+				lists.add(matches(sealed[cursor.getOrdinal()], scorer));
+				cursor.next();
+			}
+		}
+		lock.releaseReadLock();
 
-		) {
+		if (!sealedIndex) {
+			lists.add(getMatches(word, exact));
+		}
+		return lists;
+	}
 
-			for (String word : invertedIndex.keySet()) {
-				outputMap.write(word);
-				outputMap.newLine();
+	/**
+	 * Sweeps the dictionary once for all of the prefixes when the index is
+	 * sealed, instead of seeking each prefix on its own.
+	 */
+	@Override
+	public ArrayList<ArrayList<Matches>> getTermMatches(String[] words,
+			boolean exact) {
+		ArrayList<ArrayList<Matches>> lists = new ArrayList<ArrayList<Matches>>();
+		Scorer scorer = documents.getScorer();
+		lock.acquireReadLock();
+		boolean sealedIndex = dictionary != null;
+		if (sealedIndex && !exact) {
+			for (int[] ordinals : dictionary.indexOfPrefixes(words)) {
+				ArrayList<Matches> terms = new ArrayList<Matches>(
+						ordinals.length);
+				for (int ordinal : ordinals) {
+					terms.add(matches(sealed[ordinal], scorer));
+				}
+				lists.add(terms);
+			}
+		}
+		lock.releaseReadLock();
 
-				for (String files : invertedIndex.get(word).keySet()) {
-					outputMap.write("\"" + files + "\"");
+		if (!sealedIndex || exact) {
+			for (String word : words) {
+				lists.add(getTermMatches(word, exact));
+			}
+		}
+		return lists;
+	}
+
+	@Override
+	public TermPostings getPostings(String word) {
+		lock.acquireReadLock();
+		TermPostings postings;
+		if (dictionary != null) {
+			int ordinal = dictionary.indexOf(word);
+			postings = ordinal >= 0 ? sealed[ordinal] : null;
+		} else {
+			postings = invertedIndex.get(word);
+		}
+		lock.releaseReadLock();
+		return postings;
+	}
+
+	/**
+	 * Tries to search a sealed index without taking the read lock. Matches are
+	 * collected on the side and only added to the results once the lock
+	 * confirms no writer ran in the meantime. Anything thrown while reading
+	 * postings that a writer was changing is treated the same as a failed
+	 * check. A precomputed prefix table never changes once built, so it can be
+	 * used as soon as the first check passes.
+	 * 
+	 * @param word
+	 * @param tempResults
+	 * @return <code>true</code> if the results were added, or
+	 *         <code>false</code> if the caller must search under the read lock
+	 */
+	private boolean optimisticSearch(String word, SearchAccumulator tempResults) {
+		long stamp = lock.tryOptimisticRead();
+		TermDictionary words = dictionary;
+		TermPostings[] postings = sealed;
+		PrefixAggregates table = aggregates;
+		if (stamp == 0 || words == null || postings == null
+				|| !lock.validate(stamp)) {
+			return false;
+		}
+		if (table != null && !tempResults.isScored() && table.covers(word)) {
+			table.addTo(word, tempResults);
+			return true;
+		}
 
-					for (Integer position : invertedIndex.get(word).get(files)) {
-						outputMap.write(", ");
-						outputMap.write(position.toString());
+		int[] matches = new int[64];
+		int count = 0;
+		try {
+			TermDictionary.Cursor cursor = words.seek(word);
+			while (cursor.isValid() && cursor.startsWith(word)) {
+				TermPostings term = postings[cursor.getOrdinal()];
+				int documentFrequency = term.liveSize(documents);
+				for (int i = 0; i < term.size(); i++) {
+					if (count + 4 > matches.length) {
+						matches = Arrays.copyOf(matches, matches.length * 2);
 					}
-					outputMap.newLine();
+					PostingList list = term.getPositions(i);
+					matches[count++] = term.getDocument(i);
+					matches[count++] = list.size();
+					matches[count++] = list.getFirst();
+					matches[count++] = documentFrequency;
+				}
+				cursor.next();
+			}
+		} catch (RuntimeException e) {
+			return false;
+		}
+
+		if (!lock.validate(stamp)) {
+			return false;
+		}
+		for (int i = 0; i < count; i += 4) {
+			tempResults.addTerm(matches[i], matches[i + 1], matches[i + 2],
+					matches[i + 3]);
+		}
+		return true;
+	}
+
+	/**
+	 * The purpose of this method is to create a print out to a file of our map.
+	 * We pass the file we want to write out to our {@link MapWriter}. We then
+	 * iterate each word, file, and position and print out each of these three
+	 * elements to our file. Note: We must produce spaces and correct formatted
+	 * lines in order to get exact output we desire. It is necessary to close
+	 * and flush the map. Files of a word are printed in path order using the
+	 * ranks from the document table.
+	 */
+	@Override
+	public void printMap(String filename) {
+		compact();
+		long stamp = lock.tryOptimisticRead();
+		TermDictionary words = dictionary;
+		TermPostings[] postings = sealed;
+		if (stamp != 0 && words != null && postings != null
+				&& lock.validate(stamp)) {
+			try {
+				writeMap(filename, words, postings);
+				if (lock.validate(stamp)) {
+					return;
+				}
+			} catch (RuntimeException e) {
+				log.debug("Optimistic print of {} failed.", filename);
+			}
+		}
+
+		lock.acquireReadLock();
+		writeMap(filename, dictionary, sealed);
+		lock.releaseReadLock();
+	}
+
+	@Override
+	public void exportMap(String filename, ExportEncoder encoder) {
+		compact();
+		lock.acquireReadLock();
+		int[] ranks = documents.getRanks();
+		try (ExportEncoder output = encoder.open(filename)) {
+			if (dictionary != null) {
+				TermDictionary.Cursor cursor = dictionary.cursor();
+				while (cursor.next()) {
+					output.writeWord(cursor.getWord(),
+							sealed[cursor.getOrdinal()], documents, ranks);
+				}
+			} else {
+				for (String word : invertedIndex.keySet()) {
+					output.writeWord(word, invertedIndex.get(word), documents,
+							ranks);
 				}
-				outputMap.newLine();
 			}
-			outputMap.newLine();
 		} catch (IOException e) {
 			System.out.println("Your text file " + filename
 					+ " cannot be accessed.");
 		}
 		lock.releaseReadLock();
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Writes the map to the file, reading the words from the given dictionary
+	 * if there is one or from the tree map otherwise. A dictionary is written
+	 * in parallel if there is a work queue.
+	 * 
+	 * @param filename
+	 * @param words
+	 *            dictionary of a sealed index, or <code>null</code>
+	 * @param postings
+	 *            postings of each word in the dictionary
+	 */
+	private void writeMap(String filename, TermDictionary words,
+			TermPostings[] postings) {
+		if (words != null && workers != null) {
+			try {
+				new ParallelMapWriter(workers).write(filename, words, postings,
+						documents);
+			} catch (IOException e) {
+				System.out.println("Your text file " + filename
+						+ " cannot be accessed.");
+			}
+			return;
+		}
+
+		try (MapWriter outputMap = new MapWriter(filename, documents)) {
+			if (words != null) {
+				TermDictionary.Cursor cursor = words.cursor();
+				while (cursor.next()) {
+					outputMap.writeWord(cursor.getWord(),
+							postings[cursor.getOrdinal()]);
+				}
+			} else {
+				for (String word : invertedIndex.keySet()) {
+					outputMap.writeWord(word, invertedIndex.get(word));
+				}
+			}
+		} catch (IOException e) {
+			System.out.println("Your text file " + filename
+					+ " cannot be accessed.");
+		}
+	}
+
+	/**
+	 * Writes the index to a binary {@link IndexSegment} file that can be mapped
+	 * back in later instead of building the index again. If the index is not
+	 * sealed, a temporary dictionary is built for the write.
+	 * 
+	 * @param filename
+	 */
+	@Override
+	public void saveSegment(String filename) {
+		compact();
+		lock.acquireReadLock();
+		try {
+			if (dictionary != null) {
+				IndexSegment.write(dictionary, sealed, documents, filename);
+			} else {
+				IndexSegment.write(
+						new TermDictionary(invertedIndex.keySet()),
+						invertedIndex.values().toArray(
+								new TermPostings[invertedIndex.size()]),
+						documents, filename);
+			}
+		} catch (IOException e) {
+			System.out.println("The index file " + filename
+					+ " could not be written out to.");
+		}
+		lock.releaseReadLock();
+	}
+
+	/**
+	 * Returns the offsets of the documents in the postings, ordered by the
+	 * path of each document.
+	 * 
+	 * @param postings
+	 * @param ranks
+	 *            path order of every document id
+	 * @return offsets in to the postings in path order
+	 */
+	public static int[] sortByPath(TermPostings postings, int[] ranks) {
+		long[] keys = new long[postings.size()];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = ((long) ranks[postings.getDocument(i)] << 32) | i;
+		}
+		Arrays.sort(keys);
+
+		int[] order = new int[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			order[i] = (int) keys[i];
+		}
+		return order;
+	}
+}
@@ -12,9 +12,12 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -38,10 +41,12 @@ public class InvertedIndexBuilder {
 	private final HashSet<URI> links;
 	private final WorkQueue workers;
 	private final TreeSet<Path> paths;
+	private final TreeSet<Path> directories;
 	private final Lock lock;
 	private final int MAX = 50;
 	private final int GROUP = 1;
 	private int pending;
+	private boolean forkJoin;
 
 	/**
 	 * The constructor, which takes in number of threads to run.
@@ -49,11 +54,36 @@ public class InvertedIndexBuilder {
 	 * @param threads
 	 */
 	public InvertedIndexBuilder(WorkQueue minions) {
+		this(minions, new Lock());
+	}
+
+	/**
+	 * Creates a builder whose paths and links are guarded by the given lock.
+	 * 
+	 * @param minions
+	 * @param lock
+	 */
+	public InvertedIndexBuilder(WorkQueue minions, Lock lock) {
 		pending = 0;
 		workers = minions;
-		lock = new Lock();
+		this.lock = lock;
 		paths = new TreeSet<Path>();
+		directories = new TreeSet<Path>();
 		links = new HashSet<>();
+		forkJoin = false;
+	}
+
+	/**
+	 * Chooses how {@link #parser(String, String, WritableIndex)} combines the
+	 * local index of each file. By default every file worker adds its local
+	 * index to the shared index on its own. In fork-join mode the local indexes
+	 * are merged pairwise in a tree, and only the final result is added to the
+	 * shared index.
+	 * 
+	 * @param forkJoin
+	 */
+	public void setForkJoin(boolean forkJoin) {
+		this.forkJoin = forkJoin;
 	}
 
 	/**
@@ -72,6 +102,19 @@ public class InvertedIndexBuilder {
 
 	}
 
+	/**
+	 * Returns every directory visited while traversing.
+	 * 
+	 * @return copy of the directories
+	 */
+	public Set<Path> getDirectories() {
+		finish();
+		lock.acquireReadLock();
+		Set<Path> copy = new TreeSet<Path>(directories);
+		lock.releaseReadLock();
+		return copy;
+	}
+
 	/**
 	 * Adds paths in to a set.
 	 * 
@@ -106,6 +149,7 @@ public class InvertedIndexBuilder {
 		finish();
 		lock.acquireWriteLock();
 		paths.clear();
+		directories.clear();
 		logger.debug("Counters reset.");
 		lock.releaseWriteLock();
 
@@ -149,17 +193,26 @@ public class InvertedIndexBuilder {
 	 * @param ext
 	 * @param index
 	 */
-	public void parser(String dir, String ext, InvertedIndex index) {
+	public void parser(String dir, String ext, WritableIndex index) {
 		directoryTraverser(dir, ext);
 
-		for (Path file : getPaths()) {
-			if (file != null) {
-				workers.execute(new FileWorker(file.toString(), index));
-			} else {
-				System.out.println("Canot read files.");
+		if (forkJoin) {
+			Path[] files = getPaths().toArray(new Path[0]);
+			ForkJoinPool pool = new ForkJoinPool(workers.size());
+			InvertedIndex merged = pool.invoke(new MergeTask(files, 0,
+					files.length, index.getDocuments()));
+			pool.shutdown();
+			index.addAll(merged);
+		} else {
+			for (Path file : getPaths()) {
+				if (file != null) {
+					workers.execute(new FileWorker(file.toString(), index));
+				} else {
+					System.out.println("Canot read files.");
+				}
 			}
+			finish();
 		}
-		finish();
 	}
 
 	/**
@@ -182,6 +235,42 @@ public class InvertedIndexBuilder {
 		}
 	}
 
+	/**
+	 * Parses only the given files again and replaces their documents in the
+	 * index, instead of traversing and parsing everything. A file that no
+	 * longer exists or cannot be read is removed from the index with
+	 * {@link InvertedIndex#removeDocument(String)}. Every other file is parsed
+	 * in to a local index of its own on the work queue, and the new versions
+	 * of all of them are swapped in together with
+	 * {@link InvertedIndex#replaceDocuments(java.util.Map)}.
+	 * 
+	 * @param files
+	 *            files that were created, changed or deleted
+	 * @param index
+	 */
+	public void reindex(Set<Path> files, InvertedIndex index) {
+		HashMap<String, InvertedIndex> versions = new HashMap<String, InvertedIndex>();
+		for (Path file : files) {
+			if (Files.isReadable(file)) {
+				workers.execute(new ReindexWorker(file.toString(), versions));
+			} else {
+				index.removeDocument(file.toString());
+			}
+		}
+		finish();
+		index.replaceDocuments(versions);
+
+		lock.acquireWriteLock();
+		for (Path file : files) {
+			if (Files.isReadable(file)) {
+				paths.add(file);
+			} else {
+				paths.remove(file);
+			}
+		}
+		lock.releaseWriteLock();
+	}
+
 	/**
 	 * Sub class to work on traversing the directory.
 	 * 
@@ -223,6 +312,9 @@ public class InvertedIndexBuilder {
 					}
 				}
 				addPaths(temp);
+				lock.acquireWriteLock();
+				directories.add(directory);
+				lock.releaseWriteLock();
 			} catch (IOException e) {
 				logger.warn("Unable to parse {}", directory);
 				logger.catching(Level.DEBUG, e);
@@ -241,7 +333,7 @@ public class InvertedIndexBuilder {
 	 */
 	private class FileWorker implements Runnable {
 		private final String path;
-		private InvertedIndex index;
+		private WritableIndex index;
 		private InvertedIndex localIndex;
 
 		/**
@@ -250,54 +342,146 @@ public class InvertedIndexBuilder {
 		 * @param path
 		 * @param index
 		 */
-		public FileWorker(String path, InvertedIndex index) {
+		public FileWorker(String path, WritableIndex index) {
 			logger.debug("Starting to parse files");
 			this.path = path;
 			this.index = index;
-			localIndex = new InvertedIndex();
+			localIndex = new InvertedIndex(index.getDocuments());
 
 			incrementPending();
 		}
 
 		@Override
 		public void run() {
-			String[] words;
-			int position = 1;
-
-			try (BufferedReader fileReader = Files.newBufferedReader(
-					Paths.get(path), Charset.forName("UTF-8"));
-
-			) {
-				while (fileReader.ready()) {
-					words = fileReader.readLine().split("\\s");
-					for (String word : words) {
-						word = word.replaceAll("\\W", "").replaceAll("_", "")
-								.trim().toLowerCase();
-						if (word != null && !word.isEmpty()) {
-							localIndex.addWord(word, path, position);
-							position++;
-						}
-					}
-				}
+			if (parseFile(path, localIndex)) {
 				index.addAll(localIndex);
-			} catch (FileNotFoundException e) {
-				System.out.println("The file " + path
-						+ " you tried to read does not exist! ");
-			} catch (IOException e) {
-				System.out.println("Cannot read the given file.");
+			}
+			decrementPending();
+		}
+	}
+
+	/**
+	 * Sub class to parse a file again for
+	 * {@link InvertedIndexBuilder#reindex(Set, InvertedIndex)}. The file is
+	 * parsed in to a local index with its own document table, which is left
+	 * empty if the file could not be read so that the old version is only
+	 * removed.
+	 * 
+	 * @author Paul Hundal
+	 * 
+	 */
+	private class ReindexWorker implements Runnable {
+		private final String path;
+		private final HashMap<String, InvertedIndex> versions;
+
+		public ReindexWorker(String path,
+				HashMap<String, InvertedIndex> versions) {
+			this.path = path;
+			this.versions = versions;
+			incrementPending();
+		}
 
+		@Override
+		public void run() {
+			InvertedIndex localIndex = new InvertedIndex();
+			if (!parseFile(path, localIndex)) {
+				localIndex = new InvertedIndex();
+			}
+			synchronized (versions) {
+				versions.put(path, localIndex);
 			}
 			decrementPending();
 		}
 	}
 
+	/**
+	 * Reads every word of a text file in to the given index.
+	 * 
+	 * @param path
+	 * @param localIndex
+	 * @return <code>true</code> if the file could be read
+	 */
+	private static boolean parseFile(String path, InvertedIndex localIndex) {
+		String[] words;
+		int position = 1;
+		int document = localIndex.getDocuments().getId(path);
+
+		try (BufferedReader fileReader = Files.newBufferedReader(
+				Paths.get(path), Charset.forName("UTF-8"));
+
+		) {
+			while (fileReader.ready()) {
+				words = fileReader.readLine().split("\\s");
+				for (String word : words) {
+					word = word.replaceAll("\\W", "").replaceAll("_", "")
+							.trim().toLowerCase();
+					if (word != null && !word.isEmpty()) {
+						localIndex.addWord(word, document, position);
+						position++;
+					}
+				}
+			}
+			localIndex.getDocuments().addLength(document, position - 1);
+			return true;
+		} catch (FileNotFoundException e) {
+			System.out.println("The file " + path
+					+ " you tried to read does not exist! ");
+		} catch (IOException e) {
+			System.out.println("Cannot read the given file.");
+
+		}
+		return false;
+	}
+
+	/**
+	 * Parses a range of files by splitting it in half until only one file is
+	 * left, then merges the two halves back together on the way up. Files are
+	 * merged left to right, so a file always keeps its positions in order.
+	 * 
+	 * @author Paul Hundal
+	 * 
+	 */
+	private static class MergeTask extends RecursiveTask<InvertedIndex> {
+		private static final long serialVersionUID = 1L;
+		private final Path[] files;
+		private final int start;
+		private final int end;
+		private final DocumentTable documents;
+
+		public MergeTask(Path[] files, int start, int end,
+				DocumentTable documents) {
+			this.files = files;
+			this.start = start;
+			this.end = end;
+			this.documents = documents;
+		}
+
+		@Override
+		protected InvertedIndex compute() {
+			if (end - start <= 1) {
+				InvertedIndex localIndex = new InvertedIndex(documents);
+				if (start < end) {
+					parseFile(files[start].toString(), localIndex);
+				}
+				return localIndex;
+			}
+
+			int middle = (start + end) >>> 1;
+			MergeTask left = new MergeTask(files, start, middle, documents);
+			MergeTask right = new MergeTask(files, middle, end, documents);
+			left.fork();
+			InvertedIndex rightIndex = right.compute();
+			return InvertedIndex.merge(left.join(), rightIndex);
+		}
+	}
+
 	/**
 	 * This builds the index crawling the web.
 	 * 
 	 * @param seed
 	 * @param index
 	 */
-	public void seedIndex(String seed, InvertedIndex index) {
+	public void seedIndex(String seed, WritableIndex index) {
 		try {
 			URL seedURL = new URL(seed);
 			lock.acquireWriteLock();
@@ -322,9 +506,9 @@ public class InvertedIndexBuilder {
 	 */
 	private class WebCrawlWorker implements Runnable {
 		private final URI uri;
-		private final InvertedIndex index;
+		private final WritableIndex index;
 
-		public WebCrawlWorker(URI uri, InvertedIndex index) {
+		public WebCrawlWorker(URI uri, WritableIndex index) {
 			this.uri = uri;
 			this.index = index;
 
@@ -371,13 +555,15 @@ public class InvertedIndexBuilder {
 		 * @param link
 		 * @param url
 		 */
-		private void htmlParser(InvertedIndex index, String html, URI url) {
-			InvertedIndex localIndex = new InvertedIndex();
+		private void htmlParser(WritableIndex index, String html, URI url) {
+			InvertedIndex localIndex = new InvertedIndex(index.getDocuments());
 			ArrayList<String> x = fetchWords(html);
+			int document = index.getDocuments().getId(url.toString());
 			int count = 1;
 			for (String word : x) {
-				localIndex.addWord(word, url.toString(), count++);
+				localIndex.addWord(word, document, count++);
 			}
+			index.getDocuments().addLength(document, x.size());
 			index.addAll(localIndex);
 		}
 	}
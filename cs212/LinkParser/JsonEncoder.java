@@ -0,0 +1,198 @@
+import java.io.IOException;
+
+/**
+ * Exports an index or search results as one JSON object. An index maps every
+ * word to an object of its files, each holding an array of positions:
+ *
+ * <pre>
+ * {"word":{"path":[1,5],...},...}
+ * </pre>
+ *
+ * Search results map every query line to an array of its results in order:
+ *
+ * <pre>
+ * {"query":[{"path":"path","frequency":2,"position":1},...],...}
+ * </pre>
+ *
+ * @author Paul Hundal
+ *
+ */
+public class JsonEncoder extends ExportEncoder {
+
+	private boolean firstEntry;
+	private boolean firstItem;
+	private boolean firstPosition;
+
+	@Override
+	protected void begin() throws IOException {
+		firstEntry = true;
+		putByte('{');
+	}
+
+	@Override
+	protected void end() throws IOException {
+		putByte('}');
+	}
+
+	@Override
+	public void startWord(String word, int documents) throws IOException {
+		startEntry(word);
+		putByte('{');
+	}
+
+	@Override
+	public void startDocument(String path, int positions) throws IOException {
+		if (!firstItem) {
+			putByte(',');
+		}
+		firstItem = false;
+		putString(path);
+		putByte(':');
+		putByte('[');
+		firstPosition = true;
+	}
+
+	@Override
+	public void addPosition(int position) throws IOException {
+		if (!firstPosition) {
+			putByte(',');
+		}
+		firstPosition = false;
+		putNumber(position);
+	}
+
+	@Override
+	public void endDocument() throws IOException {
+		putByte(']');
+	}
+
+	@Override
+	public void endWord() throws IOException {
+		putByte('}');
+	}
+
+	@Override
+	public void startQuery(String query, int results) throws IOException {
+		startEntry(query);
+		putByte('[');
+	}
+
+	@Override
+	public void addResult(String path, int frequency, int position)
+			throws IOException {
+		if (!firstItem) {
+			putByte(',');
+		}
+		firstItem = false;
+		putAscii("{\"path\":");
+		putString(path);
+		putAscii(",\"frequency\":");
+		putNumber(frequency);
+		putAscii(",\"position\":");
+		putNumber(position);
+		putByte('}');
+	}
+
+	@Override
+	public void endQuery() throws IOException {
+		putByte(']');
+	}
+
+	/**
+	 * Writes the key of a word or query line.
+	 *
+	 * @param key
+	 * @throws IOException
+	 */
+	private void startEntry(String key) throws IOException {
+		if (!firstEntry) {
+			putByte(',');
+		}
+		firstEntry = false;
+		firstItem = true;
+		putString(key);
+		putByte(':');
+	}
+
+	/**
+	 * Writes one byte.
+	 *
+	 * @param c
+	 *            ASCII character
+	 * @throws IOException
+	 */
+	private void putByte(char c) throws IOException {
+		ensure(1);
+		buffer.put((byte) c);
+	}
+
+	/**
+	 * Writes text known to be plain ASCII without escaping it.
+	 *
+	 * @param text
+	 * @throws IOException
+	 */
+	private void putAscii(String text) throws IOException {
+		ensure(text.length());
+		for (int i = 0; i < text.length(); i++) {
+			buffer.put((byte) text.charAt(i));
+		}
+	}
+
+	/**
+	 * Writes a quoted string, escaping quotes, backslashes and control
+	 * characters.
+	 *
+	 * @param text
+	 * @throws IOException
+	 */
+	private void putString(String text) throws IOException {
+		putByte('"');
+		int i = 0;
+		while (i < text.length()) {
+			char c = text.charAt(i);
+			ensure(6);
+			if (c == '"' || c == '\\') {
+				buffer.put((byte) '\\');
+				buffer.put((byte) c);
+				i++;
+			} else if (c < 0x20) {
+				buffer.put((byte) '\\');
+				buffer.put((byte) 'u');
+				buffer.put((byte) '0');
+				buffer.put((byte) '0');
+				buffer.put((byte) Character.forDigit(c >> 4, 16));
+				buffer.put((byte) Character.forDigit(c & 0xF, 16));
+				i++;
+			} else {
+				i = putChar(text, i);
+			}
+		}
+		putByte('"');
+	}
+
+	/**
+	 * Writes the decimal digits of a number.
+	 *
+	 * @param number
+	 * @throws IOException
+	 */
+	private void putNumber(int number) throws IOException {
+		ensure(11);
+		long value = number;
+		if (value < 0) {
+			buffer.put((byte) '-');
+			value = -value;
+		}
+		int digits = 1;
+		for (long power = 10; power <= value; power *= 10) {
+			digits++;
+		}
+		int end = buffer.position() + digits;
+		for (int i = end - 1; i >= end - digits; i--) {
+			buffer.put(i, (byte) ('0' + value % 10));
+			value /= 10;
+		}
+		buffer.position(end);
+	}
+}
@@ -1,36 +1,106 @@
+import java.util.Arrays;
+
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 /**
- * Provides read-write lock functionality.
+ * Provides read-write lock functionality. By default readers are preferred, so
+ * a steady stream of readers can keep a writer waiting. A fair lock makes new
+ * readers wait behind any writer already waiting.
+ * 
+ * Every lock keeps count of how often it was acquired and how many threads
+ * are waiting on it right now. A lock created with statistics also keeps a
+ * histogram of how long threads waited for it and the longest time it was
+ * held, so it is easy to tell which lock is holding the program back. Timing
+ * every acquire and release is not free, so other locks skip it.
  * 
  * @author Paul Hundal
  * 
  */
 public class Lock {
 
+        /** The number of buckets in the wait time histogram. */
+        public static final int BUCKETS = 24;
+
         private int readers;
         private boolean writers;
+        private int waitingWriters;
+        private final boolean fair;
+        private final boolean statistics;
+        private final String name;
+
+        private long readAcquisitions;
+        private long writeAcquisitions;
+        private int waiters;
+        private long readStart;
+        private long writeStart;
+        private long maxHold;
+        private final long[] histogram;
 
         private static Logger log = LogManager.getLogger();
 
         public Lock() {
+        	this("lock", false);
+        }
+
+        /**
+         * Creates a lock with a name that does not time its waits.
+         * 
+         * @param name
+         *            name of the lock
+         * @param fair
+         *            <code>true</code> if waiting writers should block new
+         *            readers
+         */
+        public Lock(String name, boolean fair) {
+        	this(name, fair, false);
+        }
+
+        /**
+         * Creates a lock with a name to show in its statistics.
+         * 
+         * @param name
+         *            name of the lock
+         * @param fair
+         *            <code>true</code> if waiting writers should block new
+         *            readers
+         * @param statistics
+         *            <code>true</code> if waits and hold times should be timed
+         */
+        public Lock(String name, boolean fair, boolean statistics) {
         	this.readers = 0;
         	this.writers = false;
+        	this.waitingWriters = 0;
+        	this.fair = fair;
+        	this.statistics = statistics;
+        	this.name = name;
+        	this.histogram = new long[BUCKETS];
         }
 
         /**
          * Tries to acquire the read lock, waiting if necessary for other threads to
-         * be done writing, incrementing the number of readers.
+         * be done writing, incrementing the number of readers. A fair lock also
+         * waits for writers that are already waiting.
          */
         public synchronized void acquireReadLock() {
-                while (writers) {
+                long start = statistics ? System.nanoTime() : 0;
+                waiters++;
+                while (writers || (fair && waitingWriters > 0)) {
                         try {
                                 this.wait();
                         } catch (InterruptedException e) {
                                  log.error("InterruptedException");
                         }
                 }
+                waiters--;
                 readers++;
+                readAcquisitions++;
+                if (statistics) {
+                        long now = System.nanoTime();
+                        if (readers == 1) {
+                                readStart = now;
+                        }
+                        recordWait(now - start);
+                }
         }
 
         /**
@@ -38,6 +108,9 @@ public class Lock {
          */
         public synchronized void releaseReadLock() {
                 readers--;
+                if (statistics && readers == 0) {
+                        recordHold(System.nanoTime() - readStart);
+                }
                 this.notifyAll();
         }
 
@@ -46,6 +119,9 @@ public class Lock {
          * reading and writing, decrementing the number of readers.
          */
         public synchronized void acquireWriteLock() {
+                long start = statistics ? System.nanoTime() : 0;
+                waiters++;
+                waitingWriters++;
                 while (readers > 0 || writers) {
                         try {
                                 this.wait();
@@ -53,7 +129,14 @@ public class Lock {
                                 log.error("InterruptedException");
                         }
                 }
+                waitingWriters--;
+                waiters--;
                 writers = true;
+                writeAcquisitions++;
+                if (statistics) {
+                        writeStart = System.nanoTime();
+                        recordWait(writeStart - start);
+                }
         }
 
         /**
@@ -61,8 +144,143 @@ public class Lock {
          * of writers.
          */
         public synchronized void releaseWriteLock() {
+                if (statistics) {
+                        recordHold(System.nanoTime() - writeStart);
+                }
                 writers = false;
                 this.notifyAll();
         }
 
-}
\ No newline at end of file
+        /**
+         * Starts an optimistic read that does not block writers. This lock does
+         * not support optimistic reads and always returns zero, which tells the
+         * caller to use the read lock instead.
+         * 
+         * @return stamp to check with {@link #validate(long)}, or zero
+         * @see OptimisticLock
+         */
+        public long tryOptimisticRead() {
+                return 0;
+        }
+
+        /**
+         * Checks that no writer has held the lock since the stamp was handed
+         * out by {@link #tryOptimisticRead()}.
+         * 
+         * @param stamp
+         * @return <code>true</code> if everything read since the stamp is
+         *         consistent
+         */
+        public boolean validate(long stamp) {
+                return false;
+        }
+
+        /**
+         * Adds a wait to the histogram. Bucket zero counts waits under one
+         * microsecond, and bucket i counts waits of at least 2^(i-1)
+         * microseconds, with the last bucket counting everything longer.
+         * 
+         * @param nanos
+         *            time spent waiting
+         */
+        private void recordWait(long nanos) {
+                long micros = nanos / 1000;
+                int bucket = 64 - Long.numberOfLeadingZeros(micros);
+                histogram[Math.min(bucket, BUCKETS - 1)]++;
+        }
+
+        /**
+         * Keeps track of the longest time the lock was held. For the read lock
+         * this is the time from the first reader getting in until the last
+         * reader leaves, which is how long a writer would have been kept out.
+         * 
+         * @param nanos
+         *            time the lock was held
+         */
+        private void recordHold(long nanos) {
+                if (nanos > maxHold) {
+                        maxHold = nanos;
+                }
+        }
+
+        /**
+         * Returns the name of this lock.
+         * 
+         * @return name of the lock
+         */
+        public String getName() {
+                return name;
+        }
+
+        /**
+         * Returns the number of times the read lock was acquired.
+         * 
+         * @return read acquisitions
+         */
+        public synchronized long getReadAcquisitions() {
+                return readAcquisitions;
+        }
+
+        /**
+         * Returns the number of times the write lock was acquired.
+         * 
+         * @return write acquisitions
+         */
+        public synchronized long getWriteAcquisitions() {
+                return writeAcquisitions;
+        }
+
+        /**
+         * Returns the number of threads waiting for this lock right now.
+         * 
+         * @return current waiters
+         */
+        public synchronized int getWaiters() {
+                return waiters;
+        }
+
+        /**
+         * Returns the longest time the lock was held, in nanoseconds, or zero
+         * if the lock keeps no statistics.
+         * 
+         * @return maximum hold time
+         */
+        public synchronized long getMaxHoldTime() {
+                return maxHold;
+        }
+
+        /**
+         * Returns a copy of the wait time histogram, which is empty if the
+         * lock keeps no statistics.
+         * 
+         * @return wait counts, bucketed by powers of two microseconds
+         * @see #recordWait(long)
+         */
+        public synchronized long[] getWaitHistogram() {
+                return Arrays.copyOf(histogram, histogram.length);
+        }
+
+        /**
+         * Logs the statistics of this lock.
+         */
+        public void logStatistics() {
+                log.info("{}", this);
+        }
+
+        @Override
+        public synchronized String toString() {
+                int last = histogram.length - 1;
+                while (last > 0 && histogram[last] == 0) {
+                        last--;
+                }
+                String counts = name + (fair ? " (fair)" : "") + ": "
+                                + readAcquisitions + " reads, " + writeAcquisitions
+                                + " writes, " + waiters + " waiting";
+                if (!statistics) {
+                        return counts;
+                }
+                return counts + ", max hold " + (maxHold / 1000) + "us, waits "
+                                + Arrays.toString(Arrays.copyOf(histogram, last + 1));
+        }
+
+}
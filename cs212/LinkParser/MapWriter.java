@@ -0,0 +1,257 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Formats the words of an index in to the text written by
+ * {@link SearchableIndex#printMap(String)}: each word on its own line, then
+ * every file it appears in, quoted and in path order, followed by its
+ * positions, and a blank line after every word.
+ *
+ * The text is formatted as bytes straight in to one array. Paths are quoted
+ * and encoded once per document rather than once per posting, and positions
+ * are written digit by digit, so nothing is allocated per file or position.
+ * A writer opened on a file hands the array to a {@link FileChannel} whenever
+ * it fills up, and one created without a file keeps everything in memory for
+ * the {@link ParallelMapWriter} to write out later.
+ *
+ * @author Paul Hundal
+ *
+ */
+public class MapWriter implements Closeable {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final byte[] NEWLINE = System.lineSeparator().getBytes(
+			UTF8);
+	private static final byte[] SEPARATOR = ", ".getBytes(UTF8);
+
+	/** The number of bytes held before they are written to the file. */
+	private static final int BUFFER = 1 << 16;
+
+	private final DocumentTable documents;
+	private final int[] ranks;
+	private final byte[][] paths;
+	private final FileChannel channel;
+	private byte[] buffer;
+	private int length;
+
+	/**
+	 * Opens the file to write the words of an index to.
+	 *
+	 * @param filename
+	 *            file to write
+	 * @param documents
+	 *            documents the postings refer to
+	 * @throws IOException
+	 *             if the file cannot be opened
+	 */
+	public MapWriter(String filename, DocumentTable documents)
+			throws IOException {
+		this(FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING),
+				documents, documents.getRanks(), null);
+	}
+
+	/**
+	 * Creates a writer that formats in to memory, to be read back with
+	 * {@link #getBuffer()}.
+	 *
+	 * @param documents
+	 *            documents the postings refer to
+	 * @param ranks
+	 *            path order of every document id
+	 * @param paths
+	 *            quoted paths from {@link #encodePaths(DocumentTable)}, which
+	 *            may be shared by several writers
+	 */
+	public MapWriter(DocumentTable documents, int[] ranks, byte[][] paths) {
+		this(null, documents, ranks, paths);
+	}
+
+	/**
+	 * Creates a writer.
+	 *
+	 * @param channel
+	 *            file to write, or <code>null</code> to keep the text
+	 * @param documents
+	 * @param ranks
+	 * @param paths
+	 *            quoted paths, or <code>null</code> to encode them as they are
+	 *            needed
+	 */
+	private MapWriter(FileChannel channel, DocumentTable documents,
+			int[] ranks, byte[][] paths) {
+		this.channel = channel;
+		this.documents = documents;
+		this.ranks = ranks;
+		this.paths = paths != null ? paths : new byte[ranks.length][];
+		this.buffer = new byte[channel != null ? BUFFER : 256];
+		this.length = 0;
+	}
+
+	/**
+	 * Quotes and encodes the path of every document, so that writers on
+	 * several threads can share them without encoding any path twice.
+	 *
+	 * @param documents
+	 * @return quoted path of every document id
+	 */
+	public static byte[][] encodePaths(DocumentTable documents) {
+		byte[][] paths = new byte[documents.size()][];
+		for (int i = 0; i < paths.length; i++) {
+			paths[i] = quote(documents.getPath(i));
+		}
+		return paths;
+	}
+
+	/**
+	 * Quotes and encodes one path.
+	 *
+	 * @param path
+	 * @return quoted path in UTF-8
+	 */
+	private static byte[] quote(String path) {
+		return ("\"" + path + "\"").getBytes(UTF8);
+	}
+
+	/**
+	 * Writes one word followed by each of its files and positions.
+	 *
+	 * @param word
+	 * @param postings
+	 *            documents and positions of the word
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public void writeWord(String word, TermPostings postings)
+			throws IOException {
+		write(word.getBytes(UTF8));
+		write(NEWLINE);
+		for (int index : InvertedIndex.sortByPath(postings, ranks)) {
+			write(getPath(postings.getDocument(index)));
+			PostingList.Cursor positions = postings.getPositions(index)
+					.cursor();
+			while (positions.hasNext()) {
+				write(SEPARATOR);
+				writeNumber(positions.next());
+			}
+			write(NEWLINE);
+		}
+		write(NEWLINE);
+	}
+
+	/**
+	 * Returns the quoted path of a document, encoding it the first time.
+	 *
+	 * @param document
+	 *            document id
+	 * @return quoted path in UTF-8
+	 */
+	private byte[] getPath(int document) {
+		byte[] path = paths[document];
+		if (path == null) {
+			path = quote(documents.getPath(document));
+			paths[document] = path;
+		}
+		return path;
+	}
+
+	/**
+	 * Returns the text formatted so far by a writer without a file.
+	 *
+	 * @return buffer ready to be written
+	 */
+	public ByteBuffer getBuffer() {
+		return ByteBuffer.wrap(buffer, 0, length);
+	}
+
+	/**
+	 * Ends the file with a blank line, writes out whatever is left and closes
+	 * it.
+	 *
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			write(NEWLINE);
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Appends bytes to the buffer.
+	 *
+	 * @param bytes
+	 * @throws IOException
+	 */
+	private void write(byte[] bytes) throws IOException {
+		ensure(bytes.length);
+		System.arraycopy(bytes, 0, buffer, length, bytes.length);
+		length += bytes.length;
+	}
+
+	/**
+	 * Appends the decimal digits of a number to the buffer.
+	 *
+	 * @param number
+	 * @throws IOException
+	 */
+	private void writeNumber(int number) throws IOException {
+		ensure(11);
+		long value = number;
+		if (value < 0) {
+			buffer[length++] = '-';
+			value = -value;
+		}
+		int digits = 1;
+		for (long power = 10; power <= value; power *= 10) {
+			digits++;
+		}
+		for (int i = length + digits - 1; i >= length; i--) {
+			buffer[i] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+		length += digits;
+	}
+
+	/**
+	 * Makes room for more bytes, writing the buffer out to the file first if
+	 * there is one. The buffer only grows if a single value is larger than
+	 * all of it, or if there is no file.
+	 *
+	 * @param extra
+	 * @throws IOException
+	 */
+	private void ensure(int extra) throws IOException {
+		if (length + extra > buffer.length) {
+			if (channel != null) {
+				flush();
+			}
+			if (length + extra > buffer.length) {
+				buffer = Arrays.copyOf(buffer,
+						Math.max(buffer.length * 2, length + extra));
+			}
+		}
+	}
+
+	/**
+	 * Writes the buffer out to the file and empties it.
+	 *
+	 * @throws IOException
+	 */
+	private void flush() throws IOException {
+		ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, length);
+		while (bytes.hasRemaining()) {
+			channel.write(bytes);
+		}
+		length = 0;
+	}
+}
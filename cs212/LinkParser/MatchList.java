@@ -0,0 +1,83 @@
+/**
+ * Matches stored in their own arrays, used when a query word matches more
+ * than one word of the index and the documents of those words have been
+ * added up in to a single list.
+ *
+ * @author Paul Hundal
+ *
+ */
+public class MatchList extends Matches {
+
+	private final int[] documents;
+	private final int[] frequency;
+	private final int[] position;
+	private final float[] score;
+	private final float maxScore;
+
+	/**
+	 * Creates matches out of arrays that are already sorted by document id.
+	 * The arrays are used as they are.
+	 *
+	 * @param documents
+	 *            ascending document ids
+	 * @param frequency
+	 *            frequency in each document
+	 * @param position
+	 *            first position in each document
+	 * @param score
+	 *            score of each document, or <code>null</code> if the search
+	 *            is not scored
+	 */
+	public MatchList(int[] documents, int[] frequency, int[] position,
+			float[] score) {
+		this.documents = documents;
+		this.frequency = frequency;
+		this.position = position;
+		this.score = score;
+
+		float max = 0;
+		for (int i = 0; score != null && i < score.length; i++) {
+			max = Math.max(max, score[i]);
+		}
+		this.maxScore = max;
+	}
+
+	/**
+	 * Returns matches without any documents.
+	 *
+	 * @return empty matches
+	 */
+	public static MatchList empty() {
+		return new MatchList(new int[0], new int[0], new int[0], null);
+	}
+
+	@Override
+	public int size() {
+		return documents.length;
+	}
+
+	@Override
+	public int getDocument(int index) {
+		return documents[index];
+	}
+
+	@Override
+	public int getFrequency(int index) {
+		return frequency[index];
+	}
+
+	@Override
+	public int getPosition(int index) {
+		return position[index];
+	}
+
+	@Override
+	public float getScore(int index) {
+		return score != null ? score[index] : 0;
+	}
+
+	@Override
+	public float getMaxScore() {
+		return maxScore;
+	}
+}
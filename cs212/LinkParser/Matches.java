@@ -0,0 +1,289 @@
+/**
+ * The documents matched by one query word, in ascending order of document id,
+ * together with the frequency and first position of the word in each of them.
+ * Boolean queries combine these lists, jumping over documents that cannot
+ * match with {@link #advance(int, int)}.
+ *
+ * Matches read straight out of postings may still hold documents that were
+ * removed but not compacted away. Those are passed over by {@link #skip(int)}
+ * and {@link #advance(int, int)}, so anyone walking the offsets one at a time
+ * calls {@link #skip(int)} before reading an offset.
+ *
+ * @author Paul Hundal
+ *
+ */
+public abstract class Matches {
+
+	/**
+	 * Returns the number of documents matched.
+	 *
+	 * @return number of documents
+	 */
+	public abstract int size();
+
+	/**
+	 * Returns the document id at the given offset.
+	 *
+	 * @param index
+	 *            offset between 0 and {@link #size()}
+	 * @return document id
+	 */
+	public abstract int getDocument(int index);
+
+	/**
+	 * Returns how many times the query matched the document at the offset.
+	 *
+	 * @param index
+	 *            offset between 0 and {@link #size()}
+	 * @return frequency in the document
+	 */
+	public abstract int getFrequency(int index);
+
+	/**
+	 * Returns the earliest position matched in the document at the offset.
+	 *
+	 * @param index
+	 *            offset between 0 and {@link #size()}
+	 * @return first position in the document
+	 */
+	public abstract int getPosition(int index);
+
+	/**
+	 * Returns the score of the document at the offset, or zero if the search
+	 * is not scored.
+	 *
+	 * @param index
+	 *            offset between 0 and {@link #size()}
+	 * @return score of the document
+	 */
+	public abstract float getScore(int index);
+
+	/**
+	 * Returns a score that no document of these matches goes above.
+	 *
+	 * @return upper bound of {@link #getScore(int)}
+	 */
+	public abstract float getMaxScore();
+
+	/**
+	 * Finds the first offset at or after <code>from</code> whose document was
+	 * not removed. Matches without removed documents return the offset as it
+	 * is.
+	 *
+	 * @param from
+	 *            offset to start from
+	 * @return offset of the next document that was not removed, or
+	 *         {@link #size()} if there is none
+	 */
+	public int skip(int from) {
+		return from;
+	}
+
+	/**
+	 * Finds the first offset at or after <code>from</code> whose document is
+	 * not smaller than the target. The search gallops ahead in steps that
+	 * double in size and then binary searches the last step, so skipping over
+	 * n documents costs about log n comparisons instead of n.
+	 *
+	 * @param from
+	 *            offset to start from
+	 * @param target
+	 *            document id to look for
+	 * @return offset of the first document not smaller than the target, or
+	 *         {@link #size()} if there is none
+	 */
+	public int advance(int from, int target) {
+		int size = size();
+		if (from >= size || getDocument(from) >= target) {
+			return from;
+		}
+
+		int low = from;
+		int step = 1;
+		while (low + step < size && getDocument(low + step) < target) {
+			low += step;
+			step <<= 1;
+		}
+
+		int high = Math.min(low + step, size);
+		low++;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (getDocument(middle) < target) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the matches of a single word, read straight out of its postings
+	 * without copying them. The postings must not change while the matches
+	 * are in use.
+	 *
+	 * @param postings
+	 * @return matches backed by the postings
+	 */
+	public static Matches of(TermPostings postings) {
+		return new PostingMatches(postings, null, 0);
+	}
+
+	/**
+	 * Returns the matches of a single word read straight out of its postings,
+	 * scored by the given scorer.
+	 *
+	 * @param postings
+	 * @param scorer
+	 *            scorer of each document, or <code>null</code>
+	 * @return matches backed by the postings
+	 */
+	public static Matches of(TermPostings postings, Scorer scorer) {
+		return new PostingMatches(postings, scorer, postings.size());
+	}
+
+	/**
+	 * Returns the matches of a single word read straight out of its postings,
+	 * weighted as a word found in the given number of documents. This is
+	 * fewer than the size of the postings if some of them were removed.
+	 *
+	 * @param postings
+	 * @param scorer
+	 *            scorer of each document, or <code>null</code>
+	 * @param documentFrequency
+	 *            number of documents containing the word
+	 * @return matches backed by the postings
+	 */
+	public static Matches of(TermPostings postings, Scorer scorer,
+			int documentFrequency) {
+		return new PostingMatches(postings, scorer, documentFrequency);
+	}
+
+	/**
+	 * Returns matches that pass over every document removed from the table
+	 * while they are walked, instead of copying the matches without them. If
+	 * no document was ever removed the matches are returned as they are.
+	 *
+	 * @param matches
+	 *            matches that may hold removed documents
+	 * @param documents
+	 *            document table of the index
+	 * @return matches skipping removed documents
+	 */
+	public static Matches live(Matches matches, DocumentTable documents) {
+		return documents.hasRemoved() ? new LiveMatches(matches, documents)
+				: matches;
+	}
+
+	/**
+	 * Matches that read their documents out of a {@link TermPostings}.
+	 */
+	private static class PostingMatches extends Matches {
+		private final TermPostings postings;
+		private final Scorer scorer;
+		private final float weight;
+
+		public PostingMatches(TermPostings postings, Scorer scorer,
+				int documentFrequency) {
+			this.postings = postings;
+			this.scorer = scorer;
+			this.weight = scorer != null ? scorer
+					.getTermWeight(documentFrequency) : 0;
+		}
+
+		@Override
+		public int size() {
+			return postings.size();
+		}
+
+		@Override
+		public int getDocument(int index) {
+			return postings.getDocument(index);
+		}
+
+		@Override
+		public int getFrequency(int index) {
+			return postings.getPositions(index).size();
+		}
+
+		@Override
+		public int getPosition(int index) {
+			return postings.getPositions(index).getFirst();
+		}
+
+		@Override
+		public float getScore(int index) {
+			if (scorer == null) {
+				return 0;
+			}
+			return scorer.score(weight, getFrequency(index),
+					getDocument(index));
+		}
+
+		@Override
+		public float getMaxScore() {
+			return scorer != null ? scorer.getMaxScore(weight) : 0;
+		}
+	}
+
+	/**
+	 * Matches that check the document table for removed documents whenever
+	 * an offset is skipped to or advanced to. Offsets are those of the wrapped
+	 * matches, so they still line up with the postings they were read from.
+	 */
+	private static class LiveMatches extends Matches {
+		private final Matches matches;
+		private final DocumentTable documents;
+
+		public LiveMatches(Matches matches, DocumentTable documents) {
+			this.matches = matches;
+			this.documents = documents;
+		}
+
+		@Override
+		public int size() {
+			return matches.size();
+		}
+
+		@Override
+		public int getDocument(int index) {
+			return matches.getDocument(index);
+		}
+
+		@Override
+		public int getFrequency(int index) {
+			return matches.getFrequency(index);
+		}
+
+		@Override
+		public int getPosition(int index) {
+			return matches.getPosition(index);
+		}
+
+		@Override
+		public float getScore(int index) {
+			return matches.getScore(index);
+		}
+
+		@Override
+		public float getMaxScore() {
+			return matches.getMaxScore();
+		}
+
+		@Override
+		public int skip(int from) {
+			int size = matches.size();
+			while (from < size
+					&& documents.isRemoved(matches.getDocument(from))) {
+				from++;
+			}
+			return from;
+		}
+
+		@Override
+		public int advance(int from, int target) {
+			return skip(matches.advance(from, target));
+		}
+	}
+}
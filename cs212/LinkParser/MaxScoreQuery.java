@@ -0,0 +1,199 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Finds the best scored results of a query without scoring every document
+ * that contains one of its words. Every word of the index that a query word
+ * matches gives one list of matches, and each list knows a score that none
+ * of its documents goes above. The lists are ordered by that bound, smallest
+ * first.
+ *
+ * Once enough documents have been scored, the lowest score among the best
+ * of them is the score a new document has to reach. The lists with the
+ * smallest bounds whose bounds added together stay below it cannot make a
+ * document good enough on their own, so documents are only taken from the
+ * other lists. The small lists are then only looked up for those documents,
+ * jumping over everything in between, and only for as long as the score
+ * could still be reached.
+ *
+ * Documents that are scored in full are added up exactly as a plain search
+ * adds them up, so the results are the same, in the same order.
+ *
+ * @author Paul Hundal
+ *
+ */
+public class MaxScoreQuery {
+
+	private final ArrayList<String> words;
+	private long total;
+	private long scored;
+
+	/**
+	 * Creates a query of the given words.
+	 *
+	 * @param words
+	 *            query words
+	 */
+	public MaxScoreQuery(ArrayList<String> words) {
+		this.words = words;
+		this.total = 0;
+		this.scored = 0;
+	}
+
+	/**
+	 * Searches the index for the best results of the query. The index must
+	 * have a {@link Scorer}, otherwise every document scores zero and nothing
+	 * can be skipped.
+	 *
+	 * @param index
+	 *            index to search
+	 * @param exact
+	 *            <code>true</code> to match the words exactly instead of as
+	 *            prefixes
+	 * @param limit
+	 *            largest number of results to return
+	 * @return sorted list of at most <code>limit</code> search results
+	 */
+	public ArrayList<SearchResults> search(SearchableIndex index,
+			boolean exact, int limit) {
+		total = 0;
+		scored = 0;
+		ArrayList<Matches> terms = new ArrayList<Matches>();
+		for (String word : words) {
+			terms.addAll(index.getTermMatches(word, exact));
+		}
+		final Matches[] lists = terms.toArray(new Matches[terms.size()]);
+		for (Matches list : lists) {
+			total += list.size();
+		}
+
+		Integer[] boxed = new Integer[lists.length];
+		for (int i = 0; i < boxed.length; i++) {
+			boxed[i] = i;
+		}
+		Arrays.sort(boxed, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Float.compare(lists[a].getMaxScore(),
+						lists[b].getMaxScore());
+			}
+		});
+
+		int[] order = new int[lists.length];
+		float[] bounds = new float[lists.length];
+		float bound = 0;
+		for (int i = 0; i < order.length; i++) {
+			order[i] = boxed[i];
+			bound += lists[order[i]].getMaxScore();
+			bounds[i] = bound;
+		}
+
+		SearchAccumulator tempResults = new SearchAccumulator(
+				index.getDocuments());
+		PriorityQueue<Float> best = new PriorityQueue<Float>(Math.max(
+				Math.min(limit, 1024), 1));
+		int[] offsets = new int[lists.length];
+		float[] points = new float[lists.length];
+		float threshold = 0;
+		int essential = 0;
+
+		while (limit > 0) {
+			int document = Integer.MAX_VALUE;
+			for (int i = essential; i < order.length; i++) {
+				Matches list = lists[order[i]];
+				int offset = list.skip(offsets[order[i]]);
+				offsets[order[i]] = offset;
+				if (offset < list.size() && list.getDocument(offset) < document) {
+					document = list.getDocument(offset);
+				}
+			}
+			if (document == Integer.MAX_VALUE) {
+				break;
+			}
+
+			Arrays.fill(points, 0);
+			float score = 0;
+			int frequency = 0;
+			int position = Integer.MAX_VALUE;
+			for (int i = essential; i < order.length; i++) {
+				int term = order[i];
+				int offset = offsets[term];
+				if (offset < lists[term].size()
+						&& lists[term].getDocument(offset) == document) {
+					points[term] = lists[term].getScore(offset);
+					score += points[term];
+					frequency += lists[term].getFrequency(offset);
+					position = Math.min(position,
+							lists[term].getPosition(offset));
+					offsets[term]++;
+					scored++;
+				}
+			}
+
+			boolean skipped = false;
+			for (int i = essential - 1; i >= 0; i--) {
+				if (score + bounds[i] < threshold) {
+					skipped = true;
+					break;
+				}
+				int term = order[i];
+				int offset = lists[term].advance(offsets[term], document);
+				if (offset < lists[term].size()
+						&& lists[term].getDocument(offset) == document) {
+					points[term] = lists[term].getScore(offset);
+					score += points[term];
+					frequency += lists[term].getFrequency(offset);
+					position = Math.min(position,
+							lists[term].getPosition(offset));
+					offset++;
+					scored++;
+				}
+				offsets[term] = offset;
+			}
+			if (skipped) {
+				continue;
+			}
+
+			score = 0;
+			for (float point : points) {
+				score += point;
+			}
+			tempResults.add(document, frequency, position, score);
+
+			if (best.size() < limit) {
+				best.add(score);
+			} else if (score > best.peek()) {
+				best.poll();
+				best.add(score);
+			}
+			if (best.size() == limit) {
+				threshold = best.peek();
+				while (essential < order.length
+						&& bounds[essential] < threshold) {
+					essential++;
+				}
+			}
+		}
+		return tempResults.getResults(index.getDocuments(), limit);
+	}
+
+	/**
+	 * Returns the number of postings the last search did not have to look at.
+	 *
+	 * @return number of postings skipped
+	 */
+	public long getSkipped() {
+		return total - scored;
+	}
+
+	/**
+	 * Returns the number of postings of every word the last search matched.
+	 *
+	 * @return number of postings
+	 */
+	public long getTotal() {
+		return total;
+	}
+}
@@ -0,0 +1,94 @@
+import java.util.ArrayList;
+
+/**
+ * Walks the words of several indexes side by side in sorted order. A word
+ * found in only one index is handed out as it is, and a word found in several
+ * gets a copy of their postings combined oldest first. There are only a few
+ * indexes at a time, so the smallest word is found by checking every cursor.
+ *
+ * @author Paul Hundal
+ *
+ */
+public class MergedCursor implements TermCursor {
+	private final TermCursor[] cursors;
+	private final boolean[] valid;
+	private String word;
+	private TermPostings postings;
+
+	/**
+	 * Creates a cursor over the words of every cursor.
+	 *
+	 * @param cursors
+	 *            cursors to walk, oldest first, none of them moved yet
+	 */
+	public MergedCursor(TermCursor[] cursors) {
+		this.cursors = cursors;
+		valid = new boolean[cursors.length];
+		for (int i = 0; i < cursors.length; i++) {
+			valid[i] = cursors[i].next();
+		}
+		word = null;
+		postings = null;
+	}
+
+	/**
+	 * Creates a cursor over the words of every index.
+	 *
+	 * @param indexes
+	 *            indexes to walk, oldest first
+	 * @return merged cursor
+	 */
+	public static MergedCursor of(ArrayList<InvertedIndex> indexes) {
+		TermCursor[] cursors = new TermCursor[indexes.size()];
+		for (int i = 0; i < cursors.length; i++) {
+			cursors[i] = indexes.get(i).cursor();
+		}
+		return new MergedCursor(cursors);
+	}
+
+	@Override
+	public boolean next() {
+		word = null;
+		for (int i = 0; i < cursors.length; i++) {
+			if (valid[i]) {
+				String current = cursors[i].getWord();
+				if (word == null || current.compareTo(word) < 0) {
+					word = current;
+				}
+			}
+		}
+		if (word == null) {
+			return false;
+		}
+
+		postings = null;
+		boolean copied = false;
+		for (int i = 0; i < cursors.length; i++) {
+			if (valid[i] && cursors[i].getWord().equals(word)) {
+				if (postings == null) {
+					postings = cursors[i].getPostings();
+				} else {
+					if (!copied) {
+						TermPostings combined = new TermPostings();
+						combined.copyAll(postings);
+						postings = combined;
+						copied = true;
+					}
+					postings.copyAll(cursors[i].getPostings());
+				}
+				valid[i] = cursors[i].next();
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String getWord() {
+		return word;
+	}
+
+	@Override
+	public TermPostings getPostings() {
+		return postings;
+	}
+}
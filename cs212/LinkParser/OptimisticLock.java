@@ -0,0 +1,62 @@
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A drop-in replacement for {@link Lock} built on a {@link StampedLock}. The
+ * read and write lock methods behave the same, but readers no longer line up
+ * on one monitor and releasing the lock does not wake every waiting thread.
+ * Read-mostly code can also try an optimistic read first, which takes no lock
+ * at all, and check it with {@link #validate(long)} afterwards, only falling
+ * back on the read lock when a writer got in the way. The statistics kept by
+ * {@link Lock} are not recorded by this lock.
+ * 
+ * @author Paul Hundal
+ * 
+ */
+public class OptimisticLock extends Lock {
+
+	private final StampedLock lock;
+
+	public OptimisticLock() {
+		this("optimistic lock");
+	}
+
+	/**
+	 * Creates an optimistic lock with a name.
+	 * 
+	 * @param name
+	 */
+	public OptimisticLock(String name) {
+		super(name, false);
+		lock = new StampedLock();
+	}
+
+	@Override
+	public void acquireReadLock() {
+		lock.asReadLock().lock();
+	}
+
+	@Override
+	public void releaseReadLock() {
+		lock.asReadLock().unlock();
+	}
+
+	@Override
+	public void acquireWriteLock() {
+		lock.asWriteLock().lock();
+	}
+
+	@Override
+	public void releaseWriteLock() {
+		lock.asWriteLock().unlock();
+	}
+
+	@Override
+	public long tryOptimisticRead() {
+		return lock.tryOptimisticRead();
+	}
+
+	@Override
+	public boolean validate(long stamp) {
+		return stamp != 0 && lock.validate(stamp);
+	}
+}
@@ -0,0 +1,239 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Writes the words of a sealed index to a text file on several threads. The
+ * words are split in to ranges holding about the same number of postings,
+ * and each range is formatted in to its own byte array on the
+ * {@link WorkQueue}. Finished ranges are written to the file in order with
+ * one gathering write, a few ranges at a time so that only those ranges are
+ * ever held in memory.
+ *
+ * Each range is formatted by its own {@link MapWriter}, sharing one array of
+ * quoted paths, so the file is byte for byte the same as a single
+ * {@link MapWriter#writeWord} writes.
+ *
+ * @author Paul Hundal
+ *
+ */
+public class ParallelMapWriter {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final byte[] NEWLINE = System.lineSeparator().getBytes(
+			UTF8);
+	private static Logger log = LogManager.getLogger();
+
+	/** The number of ranges formatted per thread before they are written. */
+	public static final int RANGES = 4;
+
+	private final WorkQueue workers;
+	private int pending;
+	private boolean failed;
+
+	/**
+	 * Creates a writer that formats on the given work queue. A writer is
+	 * meant for writing one file.
+	 *
+	 * @param workers
+	 */
+	public ParallelMapWriter(WorkQueue workers) {
+		this.workers = workers;
+		this.pending = 0;
+		this.failed = false;
+	}
+
+	/**
+	 * Increments the count of the pending variable.
+	 */
+	private synchronized void incrementPending() {
+		pending++;
+	}
+
+	/**
+	 * Decreases the count of the pending variable, and remembers if the range
+	 * could not be formatted.
+	 *
+	 * @param success
+	 */
+	private synchronized void decrementPending(boolean success) {
+		pending--;
+		failed |= !success;
+		if (pending <= 0) {
+			this.notifyAll();
+		}
+	}
+
+	/**
+	 * Waits until every range handed out has been formatted.
+	 *
+	 * @return <code>true</code> if every range was formatted
+	 */
+	private synchronized boolean finish() {
+		try {
+			while (pending > 0) {
+				this.wait();
+			}
+		} catch (InterruptedException e) {
+			log.debug("Finish interrupted", e);
+		}
+		return !failed;
+	}
+
+	/**
+	 * Writes every word of the dictionary and its postings to the file. The
+	 * postings must not change until this returns.
+	 *
+	 * @param filename
+	 *            file to write
+	 * @param words
+	 *            dictionary of a sealed index
+	 * @param postings
+	 *            postings of each word in the dictionary
+	 * @param documents
+	 *            documents the postings refer to
+	 * @throws IOException
+	 *             if the file cannot be written
+	 * @throws IllegalStateException
+	 *             if a range could not be formatted
+	 */
+	public void write(String filename, TermDictionary words,
+			TermPostings[] postings, DocumentTable documents)
+			throws IOException {
+		int[] ranks = documents.getRanks();
+		byte[][] paths = MapWriter.encodePaths(documents);
+		int[] starts = split(postings, workers.size() * RANGES * 4);
+		int batch = workers.size() * RANGES;
+
+		try (FileChannel channel = FileChannel.open(Paths.get(filename),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			for (int first = 0; first < starts.length - 1; first += batch) {
+				int last = Math.min(first + batch, starts.length - 1);
+				Range[] ranges = new Range[last - first];
+				for (int i = 0; i < ranges.length; i++) {
+					ranges[i] = new Range(words, postings, new MapWriter(
+							documents, ranks, paths), starts[first + i],
+							starts[first + i + 1]);
+					workers.execute(ranges[i]);
+				}
+				if (!finish()) {
+					throw new IllegalStateException("A range of " + filename
+							+ " could not be formatted.");
+				}
+
+				ByteBuffer[] buffers = new ByteBuffer[ranges.length];
+				for (int i = 0; i < ranges.length; i++) {
+					buffers[i] = ranges[i].getBuffer();
+				}
+				writeAll(channel, buffers);
+			}
+			writeAll(channel, new ByteBuffer[] { ByteBuffer.wrap(NEWLINE) });
+		}
+	}
+
+	/**
+	 * Splits the words in to ranges with about the same number of postings
+	 * each.
+	 *
+	 * @param postings
+	 * @param count
+	 *            number of ranges wanted
+	 * @return first ordinal of each range, followed by the number of words
+	 */
+	private static int[] split(TermPostings[] postings, int count) {
+		long total = 0;
+		for (TermPostings term : postings) {
+			total += term.size() + 1;
+		}
+		long target = Math.max(total / Math.max(count, 1), 1);
+
+		int[] starts = new int[count + 2];
+		int ranges = 0;
+		long size = 0;
+		for (int ordinal = 0; ordinal < postings.length; ordinal++) {
+			if (size == 0) {
+				starts[ranges++] = ordinal;
+			}
+			size += postings[ordinal].size() + 1;
+			if (size >= target && ranges < count + 1) {
+				size = 0;
+			}
+		}
+		starts[ranges++] = postings.length;
+		return Arrays.copyOf(starts, ranges);
+	}
+
+	/**
+	 * Writes every buffer to the channel, calling the gathering write again
+	 * until nothing is left.
+	 *
+	 * @param channel
+	 * @param buffers
+	 * @throws IOException
+	 */
+	private static void writeAll(FileChannel channel, ByteBuffer[] buffers)
+			throws IOException {
+		long remaining = 0;
+		for (ByteBuffer buffer : buffers) {
+			remaining += buffer.remaining();
+		}
+		while (remaining > 0) {
+			remaining -= channel.write(buffers);
+		}
+	}
+
+	/**
+	 * Formats the words of one range in to a byte array.
+	 */
+	private class Range implements Runnable {
+		private final TermDictionary words;
+		private final TermPostings[] postings;
+		private final MapWriter output;
+		private final int start;
+		private final int end;
+
+		public Range(TermDictionary words, TermPostings[] postings,
+				MapWriter output, int start, int end) {
+			this.words = words;
+			this.postings = postings;
+			this.output = output;
+			this.start = start;
+			this.end = end;
+			incrementPending();
+		}
+
+		@Override
+		public void run() {
+			boolean success = false;
+			try {
+				TermDictionary.Cursor cursor = words.cursor(start);
+				for (int i = start; i < end && cursor.next(); i++) {
+					output.writeWord(cursor.getWord(),
+							postings[cursor.getOrdinal()]);
+				}
+				success = true;
+			} catch (IOException | RuntimeException e) {
+				log.debug("Range {} to {} failed.", start, end, e);
+			} finally {
+				decrementPending(success);
+			}
+		}
+
+		/**
+		 * Returns the formatted range.
+		 *
+		 * @return buffer ready to be written
+		 */
+		public ByteBuffer getBuffer() {
+			return output.getBuffer();
+		}
+	}
+}
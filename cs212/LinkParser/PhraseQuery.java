@@ -0,0 +1,174 @@
+import java.util.Arrays;
+
+/**
+ * Finds the documents where a run of words appears next to each other, using
+ * the positions already stored in the index. The documents of the words are
+ * intersected first, starting from the word found in the fewest documents.
+ * Then, in each document found, the positions of the word that appears there
+ * the fewest times are walked, checking that every other word sits at the
+ * matching distance. The positions of each word only ever move forward, so a
+ * document costs one merge of its position lists.
+ *
+ * The frequency of a matched document is the number of times the phrase
+ * appears in it, and its position is where the first of those starts. If
+ * the search is scored, the phrase is scored as if it were one word.
+ *
+ * @author Paul Hundal
+ *
+ */
+public class PhraseQuery {
+
+	private final String[] words;
+
+	/**
+	 * Creates a phrase of the given words, which are matched exactly.
+	 *
+	 * @param words
+	 *            words of the phrase in order
+	 */
+	public PhraseQuery(String[] words) {
+		this.words = words;
+	}
+
+	/**
+	 * Returns every document containing the phrase.
+	 *
+	 * @param index
+	 *            index to search
+	 * @return documents containing the phrase
+	 */
+	public Matches getMatches(SearchableIndex index) {
+		TermPostings[] postings = new TermPostings[words.length];
+		for (int i = 0; i < words.length; i++) {
+			postings[i] = index.getPostings(words[i]);
+			if (postings[i] == null) {
+				return MatchList.empty();
+			}
+		}
+
+		int[] order = rarestFirst(postings);
+		Matches[] lists = new Matches[order.length];
+		for (int i = 0; i < order.length; i++) {
+			lists[i] = Matches.live(Matches.of(postings[order[i]]),
+					index.getDocuments());
+		}
+
+		Matches rarest = lists[0];
+		int[] offsets = new int[lists.length];
+		int[] documents = new int[rarest.size()];
+		int[] frequency = new int[rarest.size()];
+		int[] position = new int[rarest.size()];
+		int count = 0;
+		int next = rarest.skip(0);
+
+		search: while (next < rarest.size()) {
+			int document = rarest.getDocument(next);
+			offsets[0] = next;
+			for (int i = 1; i < lists.length; i++) {
+				offsets[i] = lists[i].advance(offsets[i], document);
+				if (offsets[i] == lists[i].size()) {
+					break search;
+				}
+				int other = lists[i].getDocument(offsets[i]);
+				if (other != document) {
+					next = rarest.advance(next, other);
+					continue search;
+				}
+			}
+			next = rarest.skip(next + 1);
+
+			int[][] positions = new int[order.length][];
+			int fewest = 0;
+			for (int i = 0; i < order.length; i++) {
+				positions[i] = sortedPositions(postings[order[i]]
+						.getPositions(offsets[i]));
+				if (positions[i].length < positions[fewest].length) {
+					fewest = i;
+				}
+			}
+
+			int[] cursors = new int[order.length];
+			int matched = 0;
+			int first = 0;
+			starts: for (int start : positions[fewest]) {
+				start -= order[fewest];
+				for (int i = 0; i < order.length; i++) {
+					int target = start + order[i];
+					while (cursors[i] < positions[i].length
+							&& positions[i][cursors[i]] < target) {
+						cursors[i]++;
+					}
+					if (cursors[i] == positions[i].length) {
+						break starts;
+					}
+					if (positions[i][cursors[i]] != target) {
+						continue starts;
+					}
+				}
+				if (matched == 0) {
+					first = start;
+				}
+				matched++;
+			}
+
+			if (matched > 0) {
+				documents[count] = document;
+				frequency[count] = matched;
+				position[count] = first;
+				count++;
+			}
+		}
+
+		float[] score = null;
+		Scorer scorer = index.getDocuments().getScorer();
+		if (scorer != null) {
+			score = new float[count];
+			float weight = scorer.getTermWeight(count);
+			for (int i = 0; i < count; i++) {
+				score[i] = scorer.score(weight, frequency[i], documents[i]);
+			}
+		}
+		return new MatchList(Arrays.copyOf(documents, count), Arrays.copyOf(
+				frequency, count), Arrays.copyOf(position, count), score);
+	}
+
+	/**
+	 * Returns the offsets of the words ordered by how many documents each
+	 * word is found in, fewest first.
+	 *
+	 * @param postings
+	 *            postings of each word of the phrase
+	 * @return offsets in to the phrase, rarest word first
+	 */
+	private static int[] rarestFirst(TermPostings[] postings) {
+		int[] order = new int[postings.length];
+		for (int i = 0; i < order.length; i++) {
+			int j = i;
+			while (j > 0 && postings[order[j - 1]].size() > postings[i].size()) {
+				order[j] = order[j - 1];
+				j--;
+			}
+			order[j] = i;
+		}
+		return order;
+	}
+
+	/**
+	 * Decodes the positions of a word in one document in ascending order.
+	 * Positions are normally added in order already, but a file that was
+	 * parsed twice holds two runs of them.
+	 *
+	 * @param list
+	 * @return sorted positions
+	 */
+	private static int[] sortedPositions(PostingList list) {
+		int[] positions = list.toArray();
+		for (int i = 1; i < positions.length; i++) {
+			if (positions[i] < positions[i - 1]) {
+				Arrays.sort(positions);
+				break;
+			}
+		}
+		return positions;
+	}
+}
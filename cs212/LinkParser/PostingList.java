@@ -0,0 +1,249 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Stores the positions of a single word in a single file without boxing each
+ * position in an {@link Integer}. Positions are kept in the order they were
+ * added, each one stored as the difference from the previous position and
+ * written out as a variable length integer into a growable byte array. Most
+ * differences fit into a single byte, so a list of positions costs close to
+ * one byte per occurrence instead of a full object.
+ *
+ * The differences are zig-zag encoded so that a position smaller than the one
+ * before it (for example when the same file is parsed twice) is still stored
+ * and printed exactly as it was added.
+ *
+ * @author Paul Hundal
+ *
+ */
+public class PostingList {
+
+	/** The starting size of the byte array. */
+	private static final int INITIAL = 4;
+
+	private byte[] bytes;
+	private int length;
+	private int size;
+	private int first;
+	private int last;
+
+	public PostingList() {
+		bytes = new byte[INITIAL];
+		length = 0;
+		size = 0;
+		first = 0;
+		last = 0;
+	}
+
+	/**
+	 * Adds a position to the end of this list.
+	 *
+	 * @param position
+	 *            the position of the word in the file
+	 */
+	public void add(int position) {
+		if (size == 0) {
+			first = position;
+		}
+		writeVarint(zigzag(position - last));
+		last = position;
+		size++;
+	}
+
+	/**
+	 * Adds every position of the other list to the end of this list. Only the
+	 * first position of the other list needs to be encoded again, the rest of
+	 * its bytes are already differences and are copied over as they are.
+	 *
+	 * @param other
+	 *            the list of positions to append
+	 */
+	public void addAll(PostingList other) {
+		if (other.size == 0) {
+			return;
+		}
+		if (size == 0) {
+			ensureCapacity(other.length);
+			System.arraycopy(other.bytes, 0, bytes, 0, other.length);
+			length = other.length;
+			first = other.first;
+		} else {
+			int skip = 0;
+			while ((other.bytes[skip] & 0x80) != 0) {
+				skip++;
+			}
+			skip++;
+			writeVarint(zigzag(other.first - last));
+			ensureCapacity(length + other.length - skip);
+			System.arraycopy(other.bytes, skip, bytes, length, other.length
+					- skip);
+			length += other.length - skip;
+		}
+		last = other.last;
+		size += other.size;
+	}
+
+	/**
+	 * Returns the number of positions in this list, which is the frequency of
+	 * the word in the file.
+	 *
+	 * @return number of positions
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the first position that was added to this list.
+	 *
+	 * @return first position
+	 */
+	public int getFirst() {
+		return first;
+	}
+
+	/**
+	 * Returns a cursor that walks over the positions in the order they were
+	 * added.
+	 *
+	 * @return cursor over the positions
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	/**
+	 * Decodes every position in to a new array.
+	 *
+	 * @return array of positions in the order they were added
+	 */
+	public int[] toArray() {
+		int[] positions = new int[size];
+		Cursor cursor = cursor();
+		for (int i = 0; i < size; i++) {
+			positions[i] = cursor.next();
+		}
+		return positions;
+	}
+
+	/**
+	 * Returns the number of bytes used by the encoded positions.
+	 *
+	 * @return number of encoded bytes
+	 */
+	public int getByteLength() {
+		return length;
+	}
+
+	/**
+	 * Writes the encoded positions, exactly as they are stored, to the stream.
+	 * They can be read back with {@link #unzigzag(int)} applied to each
+	 * variable length integer.
+	 *
+	 * @param out
+	 *            stream to write to
+	 * @throws IOException
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		out.write(bytes, 0, length);
+	}
+
+	/**
+	 * Appends the variable length encoding of value to the byte array, seven
+	 * bits at a time with the high bit set on every byte except the last.
+	 *
+	 * @param value
+	 */
+	private void writeVarint(int value) {
+		ensureCapacity(length + 5);
+		while ((value & ~0x7F) != 0) {
+			bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		bytes[length++] = (byte) value;
+	}
+
+	/**
+	 * Grows the byte array so it can hold at least the given number of bytes.
+	 *
+	 * @param capacity
+	 */
+	private void ensureCapacity(int capacity) {
+		if (capacity > bytes.length) {
+			bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+		}
+	}
+
+	/**
+	 * Maps signed differences to unsigned ones so small negative numbers stay
+	 * small.
+	 *
+	 * @param value
+	 * @return zig-zag encoded value
+	 */
+	public static int zigzag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	/**
+	 * Reverses {@link #zigzag(int)}.
+	 *
+	 * @param value
+	 * @return decoded value
+	 */
+	public static int unzigzag(int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Walks over the positions of a posting list without boxing them.
+	 *
+	 * @author Paul Hundal
+	 *
+	 */
+	public class Cursor {
+		private int offset;
+		private int remaining;
+		private int current;
+
+		private Cursor() {
+			offset = 0;
+			remaining = size;
+			current = 0;
+		}
+
+		/**
+		 * Checks if there are any positions left.
+		 *
+		 * @return <code>true</code> if {@link #next()} has another position
+		 */
+		public boolean hasNext() {
+			return remaining > 0;
+		}
+
+		/**
+		 * Decodes and returns the next position.
+		 *
+		 * @return the next position
+		 */
+		public int next() {
+			if (remaining <= 0) {
+				throw new NoSuchElementException();
+			}
+			int value = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = bytes[offset++];
+				value |= (b & 0x7F) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+
+			current += unzigzag(value);
+			remaining--;
+			return current;
+		}
+	}
+}
@@ -0,0 +1,116 @@
+import java.util.HashMap;
+
+/**
+ * Search totals precomputed for every short prefix of a sealed index. A one or
+ * two character query matches a large share of the words, so instead of adding
+ * up the postings of each of those words on every search, the frequency and
+ * earliest position of every document are added up once per prefix when the
+ * index is sealed. A search for a short prefix then copies one array in to the
+ * results.
+ *
+ * @author Paul Hundal
+ *
+ */
+public class PrefixAggregates {
+
+	/** The default length of the longest prefix that is precomputed. */
+	public static final int DEFAULT = 2;
+
+	private final HashMap<String, int[]> totals;
+	private final int length;
+
+	/**
+	 * Adds up the postings of every word for each of its prefixes up to the
+	 * given length. Words come out of the dictionary in sorted order, so all
+	 * words sharing a prefix are next to each other and every level only
+	 * needs one accumulator that is flushed whenever its prefix changes.
+	 *
+	 * @param dictionary
+	 *            sorted words of a sealed index
+	 * @param postings
+	 *            postings of each word, stored at the ordinal of the word
+	 * @param documents
+	 *            document table of the index, which sizes the accumulators
+	 * @param length
+	 *            length of the longest prefix to precompute
+	 */
+	public PrefixAggregates(TermDictionary dictionary, TermPostings[] postings,
+			DocumentTable documents, int length) {
+		this.totals = new HashMap<String, int[]>();
+		this.length = length;
+
+		String[] prefixes = new String[length + 1];
+		SearchAccumulator[] levels = new SearchAccumulator[length + 1];
+		for (int level = 1; level <= length; level++) {
+			levels[level] = new SearchAccumulator(documents.size());
+		}
+
+		TermDictionary.Cursor cursor = dictionary.cursor();
+		while (cursor.next()) {
+			String word = cursor.getWord();
+			int max = Math.min(length, word.length());
+			for (int level = 1; level <= max; level++) {
+				if (prefixes[level] == null
+						|| !word.startsWith(prefixes[level])) {
+					flush(prefixes[level], levels[level]);
+					prefixes[level] = word.substring(0, level);
+				}
+				levels[level].addAll(postings[cursor.getOrdinal()]);
+			}
+		}
+		for (int level = 1; level <= length; level++) {
+			flush(prefixes[level], levels[level]);
+		}
+	}
+
+	/**
+	 * Stores the totals of a finished prefix and empties the accumulator.
+	 *
+	 * @param prefix
+	 * @param level
+	 */
+	private void flush(String prefix, SearchAccumulator level) {
+		if (prefix != null) {
+			totals.put(prefix, level.toArray());
+			level.clear();
+		}
+	}
+
+	/**
+	 * Checks if the totals of the query word were precomputed.
+	 *
+	 * @param word
+	 *            query word
+	 * @return <code>true</code> if the word is short enough to be looked up
+	 */
+	public boolean covers(String word) {
+		return word.length() >= 1 && word.length() <= length;
+	}
+
+	/**
+	 * Adds the precomputed totals of a covered query word to the results.
+	 * Nothing is added if no word starts with it.
+	 *
+	 * @param word
+	 *            query word accepted by {@link #covers(String)}
+	 * @param tempResults
+	 *            results to add to
+	 */
+	public void addTo(String word, SearchAccumulator tempResults) {
+		int[] matches = totals.get(word);
+		if (matches != null) {
+			for (int i = 0; i < matches.length; i += 3) {
+				tempResults.add(matches[i], matches[i + 1], matches[i + 2]);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of prefixes that were precomputed.
+	 *
+	 * @return number of prefixes
+	 */
+	public int size() {
+		return totals.size();
+	}
+}
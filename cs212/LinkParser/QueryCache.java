@@ -0,0 +1,140 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Remembers the results of recent queries so a repeated query line does not
+ * search the index again. Entries are kept in a {@link LinkedHashMap} in
+ * access order, and once the cache is full the least recently used entry is
+ * dropped. Every entry records the generation of the index it was searched
+ * in, and an entry from an older generation counts as a miss, so results
+ * never outlive a change to the index.
+ *
+ * The map changes order on every lookup, so all access is synchronized.
+ *
+ * @author Paul Hundal
+ *
+ */
+public class QueryCache {
+
+	/** The default number of queries kept. */
+	public static final int DEFAULT = 256;
+
+	private static Logger log = LogManager.getLogger();
+
+	private final LinkedHashMap<String, Entry> entries;
+	private long hits;
+	private long misses;
+
+	/**
+	 * Creates a cache holding at most the given number of queries.
+	 *
+	 * @param capacity
+	 *            largest number of queries kept
+	 */
+	public QueryCache(final int capacity) {
+		entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size() > capacity;
+			}
+		};
+		hits = 0;
+		misses = 0;
+	}
+
+	/**
+	 * Returns the cached results of a query, or <code>null</code> if the
+	 * query is not cached or was searched in an older generation of the
+	 * index.
+	 *
+	 * @param query
+	 *            normalized query
+	 * @param generation
+	 *            current generation of the index
+	 * @return cached results or <code>null</code>
+	 */
+	public synchronized ArrayList<SearchResults> get(String query,
+			long generation) {
+		Entry entry = entries.get(query);
+		if (entry == null || entry.generation != generation) {
+			if (entry != null) {
+				entries.remove(query);
+			}
+			misses++;
+			return null;
+		}
+		hits++;
+		return entry.results;
+	}
+
+	/**
+	 * Saves the results of a query. The generation should be read from the
+	 * index before searching, so results of a search that raced with a
+	 * writer are already stale when they are saved.
+	 *
+	 * @param query
+	 *            normalized query
+	 * @param generation
+	 *            generation of the index when the search started
+	 * @param results
+	 *            results of the search, which must not be changed afterwards
+	 */
+	public synchronized void put(String query, long generation,
+			ArrayList<SearchResults> results) {
+		entries.put(query, new Entry(generation, results));
+	}
+
+	/**
+	 * Returns the number of lookups that found current results.
+	 *
+	 * @return number of hits
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of lookups that had to search the index.
+	 *
+	 * @return number of misses
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Returns the number of queries in the cache.
+	 *
+	 * @return number of queries
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Logs the hit and miss counts.
+	 */
+	public void logStatistics() {
+		log.info("Query cache: {} hits, {} misses, {} queries kept.",
+				getHits(), getMisses(), size());
+	}
+
+	/**
+	 * The results of one query and the generation they were searched in.
+	 */
+	private static class Entry {
+		private final long generation;
+		private final ArrayList<SearchResults> results;
+
+		public Entry(long generation, ArrayList<SearchResults> results) {
+			this.generation = generation;
+			this.results = results;
+		}
+	}
+}
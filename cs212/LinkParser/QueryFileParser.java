@@ -14,7 +14,10 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.TreeSet;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -25,15 +28,142 @@ public class QueryFileParser {
 	private static Logger log = LogManager.getLogger();
 	private Lock lock;
 	private int pending;
+	private boolean exact;
+	private int limit;
+	private QueryCache cache;
+	private boolean booleanQueries;
+	private boolean pruning;
+	private boolean batch;
+	private String output;
+	private ExportEncoder encoder;
+	private ResultStream stream;
+	private int prunedQueries;
+	private long skippedPostings;
+	private long totalPostings;
 
 	public QueryFileParser(WorkQueue minions) {
+		this(minions, new Lock());
+	}
+
+	/**
+	 * Creates a query file parser whose results are guarded by the given
+	 * lock, such as an {@link OptimisticLock}.
+	 * 
+	 * @param minions
+	 * @param lock
+	 */
+	public QueryFileParser(WorkQueue minions, Lock lock) {
 		map = new LinkedHashMap<String, ArrayList<SearchResults>>();
 		workers = minions;
 		pending = 0;
-		lock = new Lock();
+		this.lock = lock;
+		exact = false;
+		limit = Integer.MAX_VALUE;
+		cache = null;
+		booleanQueries = false;
+		pruning = false;
+		batch = false;
+		output = null;
+		encoder = null;
+		stream = null;
+		prunedQueries = 0;
+		skippedPostings = 0;
+		totalPostings = 0;
 		log.info("Building my search results.");
 	}
 
+	/**
+	 * Sets whether query words must match a word of the index exactly instead
+	 * of as a prefix.
+	 * 
+	 * @param exact
+	 */
+	public void setExact(boolean exact) {
+		this.exact = exact;
+	}
+
+	/**
+	 * Sets the largest number of results kept for each query line.
+	 * 
+	 * @param limit
+	 */
+	public void setLimit(int limit) {
+		this.limit = limit;
+	}
+
+	/**
+	 * Sets whether query lines are read as a {@link BooleanQuery}, with
+	 * <code>AND</code>, <code>OR</code> and <code>NOT</code> between words
+	 * and phrases in double quotes.
+	 * 
+	 * @param booleanQueries
+	 */
+	public void setBooleanQueries(boolean booleanQueries) {
+		this.booleanQueries = booleanQueries;
+	}
+
+	/**
+	 * Sets whether a query with a limit over a scored index is answered by a
+	 * {@link MaxScoreQuery}, which skips documents that cannot make it in to
+	 * the best results.
+	 * 
+	 * @param pruning
+	 */
+	public void setPruning(boolean pruning) {
+		this.pruning = pruning;
+	}
+
+	/**
+	 * Sets whether a whole query file is searched as one batch. The words of
+	 * every line are looked up together in one pass over the words of the
+	 * index, and each line then only adds up the matches of its own words.
+	 * Boolean queries and pruned searches are still run one line at a time.
+	 * Lines found in the cache are answered from it and their words are not
+	 * looked up.
+	 * 
+	 * @param batch
+	 */
+	public void setBatch(boolean batch) {
+		this.batch = batch;
+	}
+
+	/**
+	 * Sets the file that results are streamed to while the query file is
+	 * searched, instead of being kept until {@link #printResults(String)}.
+	 * Each line is written as soon as it and every line before it are done,
+	 * and is not kept afterwards.
+	 * 
+	 * @param output
+	 *            file to write, or <code>null</code> to keep the results
+	 */
+	public void setOutput(String output) {
+		setOutput(output, null);
+	}
+
+	/**
+	 * Sets the file that results are streamed to while the query file is
+	 * searched, written in the format of the encoder.
+	 * 
+	 * @param output
+	 *            file to write, or <code>null</code> to keep the results
+	 * @param encoder
+	 *            encoder of the results, or <code>null</code> to write text
+	 */
+	public void setOutput(String output, ExportEncoder encoder) {
+		this.output = output;
+		this.encoder = encoder;
+	}
+
+	/**
+	 * Sets the cache used to answer repeated query lines without searching
+	 * the index again, or <code>null</code> to search every line.
+	 * 
+	 * @param cache
+	 */
+	public void setCache(QueryCache cache) {
+		this.cache = cache;
+	}
+
 	/**
 	 * Increments the count of the pending variable.
 	 */
@@ -68,6 +198,30 @@ public class QueryFileParser {
 		}
 	}
 
+	/**
+	 * Adds the postings one pruned query skipped to the totals.
+	 * 
+	 * @param skipped
+	 *            number of postings skipped
+	 * @param total
+	 *            number of postings of the query words
+	 */
+	private synchronized void addSkipped(long skipped, long total) {
+		prunedQueries++;
+		skippedPostings += skipped;
+		totalPostings += total;
+	}
+
+	/**
+	 * Logs how many postings pruned queries skipped, if any query was pruned.
+	 */
+	public synchronized void logStatistics() {
+		if (prunedQueries > 0) {
+			log.info("Pruning skipped {} of {} postings over {} queries.",
+					skippedPostings, totalPostings, prunedQueries);
+		}
+	}
+
 	/**
 	 * Shuts down
 	 */
@@ -101,30 +255,209 @@ public class QueryFileParser {
 	 * @param filename
 	 *            : file of queries
 	 */
-	public void search(String filename, InvertedIndex index) {
+	public void search(String filename, SearchableIndex index) {
 		Path file = Paths.get(filename);
 
+		if (output != null) {
+			try {
+				stream = new ResultStream(output, encoder);
+			} catch (IOException e) {
+				System.out.println("The file " + output
+						+ " could not be written out to.");
+			}
+		}
+
 		try (BufferedReader reader = Files.newBufferedReader(file,
 				Charset.forName("UTF-8"))) {
+			boolean batched = batch && !booleanQueries && !pruning;
+			ArrayList<String> lines = new ArrayList<String>();
+			HashSet<String> seen = new HashSet<String>();
+			int sequence = 0;
 			String parseWord;
 			while ((parseWord = reader.readLine()) != null) {
-				lock.acquireWriteLock();
-				map.put(parseWord, null);
-				lock.releaseWriteLock();
-				workers.execute(new Searcher(parseWord, index));
+				if (stream != null) {
+					if (!seen.add(parseWord)) {
+						continue;
+					}
+				} else {
+					lock.acquireWriteLock();
+					map.put(parseWord, null);
+					lock.releaseWriteLock();
+				}
+				if (batched) {
+					lines.add(parseWord);
+				} else {
+					workers.execute(new Searcher(parseWord, sequence, index));
+				}
+				sequence++;
+			}
+			if (batched) {
+				searchBatch(lines, index);
 			}
 			finish();
 		} catch (IOException e) {
 			System.out.println("The file " + filename + " could not be read.");
 		}
+
+		if (stream != null) {
+			finish();
+			stream.close();
+			stream = null;
+		}
+	}
+
+	/**
+	 * Stores the results of a finished line, or passes them on to the stream
+	 * if results are being streamed.
+	 * 
+	 * @param sequence
+	 *            number of the line in the query file
+	 * @param inputline
+	 * @param results
+	 */
+	private void addResults(int sequence, String inputline,
+			ArrayList<SearchResults> results) {
+		if (stream != null) {
+			stream.add(sequence, inputline, results);
+		} else {
+			lock.acquireWriteLock();
+			map.put(inputline, results);
+			lock.releaseWriteLock();
+		}
+	}
+
+	/**
+	 * Splits a query line in to its words.
+	 * 
+	 * @param inputline
+	 * @return query words
+	 */
+	private static ArrayList<String> parseQuery(String inputline) {
+		ArrayList<String> querylist = new ArrayList<String>();
+		String[] wordarray = inputline.split("\\s");
+		for (String words : wordarray) {
+			normalizeWord(words);
+			querylist.add(words);
+		}
+		return querylist;
+	}
+
+	/**
+	 * Looks up the sorted, distinct words of every line in one call to the
+	 * index, then hands each distinct line to a {@link BatchSearcher} that
+	 * adds up the matches of its words.
+	 * 
+	 * @param lines
+	 *            query lines in file order
+	 * @param index
+	 *            index to search
+	 */
+	private void searchBatch(ArrayList<String> lines, SearchableIndex index) {
+		LinkedHashMap<String, ArrayList<String>> queries = new LinkedHashMap<String, ArrayList<String>>();
+		HashMap<String, Integer> sequences = new HashMap<String, Integer>();
+		HashSet<String> cached = new HashSet<String>();
+		TreeSet<String> sorted = new TreeSet<String>();
+		long generation = index.getGeneration();
+		for (int i = 0; i < lines.size(); i++) {
+			String line = lines.get(i);
+			if (line.isEmpty()) {
+				addResults(i, line, null);
+			} else if (!queries.containsKey(line) && !cached.contains(line)) {
+				ArrayList<String> querylist = parseQuery(line);
+				ArrayList<SearchResults> results = cache != null ? cache.get(
+						cacheKey(querylist), generation) : null;
+				if (results != null) {
+					cached.add(line);
+					addResults(i, line, results);
+				} else {
+					queries.put(line, querylist);
+					sequences.put(line, i);
+					sorted.addAll(querylist);
+				}
+			}
+		}
+
+		String[] words = sorted.toArray(new String[sorted.size()]);
+		ArrayList<ArrayList<Matches>> terms = index.getTermMatches(words,
+				exact);
+		HashMap<String, ArrayList<Matches>> matches = new HashMap<String, ArrayList<Matches>>();
+		for (int i = 0; i < words.length; i++) {
+			matches.put(words[i], terms.get(i));
+		}
+		log.info("Looked up {} distinct words for {} queries.", words.length,
+				queries.size());
+
+		for (String line : queries.keySet()) {
+			workers.execute(new BatchSearcher(line, sequences.get(line),
+					queries.get(line), matches, index, generation));
+		}
+	}
+
+	/**
+	 * Returns the key of a query line in the cache, which holds everything
+	 * that changes its results.
+	 * 
+	 * @param querylist
+	 *            query words of the line
+	 * @return cache key
+	 */
+	private String cacheKey(ArrayList<String> querylist) {
+		return (booleanQueries ? "boolean " : "")
+				+ (exact ? "exact " : "partial ") + limit + " " + querylist;
+	}
+
+	/**
+	 * Adds up the results of one line of a batch from matches that were
+	 * already looked up.
+	 */
+	private class BatchSearcher implements Runnable {
+		private final String inputline;
+		private final int sequence;
+		private final ArrayList<String> querylist;
+		private final HashMap<String, ArrayList<Matches>> matches;
+		private final SearchableIndex index;
+		private final long generation;
+
+		public BatchSearcher(String inputline, int sequence,
+				ArrayList<String> querylist,
+				HashMap<String, ArrayList<Matches>> matches,
+				SearchableIndex index, long generation) {
+			this.inputline = inputline;
+			this.sequence = sequence;
+			this.querylist = querylist;
+			this.matches = matches;
+			this.index = index;
+			this.generation = generation;
+			incrementPending();
+		}
+
+		@Override
+		public void run() {
+			DocumentTable documents = index.getDocuments();
+			SearchAccumulator tempResults = new SearchAccumulator(documents);
+			for (String word : querylist) {
+				for (Matches term : matches.get(word)) {
+					tempResults.addAll(term);
+				}
+			}
+			ArrayList<SearchResults> results = tempResults.getResults(
+					documents, limit);
+			if (cache != null) {
+				cache.put(cacheKey(querylist), generation, results);
+			}
+			addResults(sequence, inputline, results);
+			decrementPending();
+		}
 	}
 
 	private class Searcher implements Runnable {
 		private final String inputline;
-		private InvertedIndex index;
+		private final int sequence;
+		private SearchableIndex index;
 
-		public Searcher(String inputline, InvertedIndex index) {
+		public Searcher(String inputline, int sequence, SearchableIndex index) {
 			this.inputline = inputline;
+			this.sequence = sequence;
 			this.index = index;
 			incrementPending();
 			log.debug("Starting searcher.");
@@ -132,22 +465,73 @@ public class QueryFileParser {
 
 		@Override
 		public void run() {
-			ArrayList<String> querylist = new ArrayList<String>();
+			ArrayList<SearchResults> results = null;
 			if (inputline != null && !inputline.isEmpty()) {
-				String[] wordarray = inputline.split("\\s");
-				for (String words : wordarray) {
-					normalizeWord(words);
-					querylist.add(words);
-				}
+				ArrayList<String> querylist = parseQuery(inputline);
 
-				ArrayList<SearchResults> results = index
-						.partialSearch(querylist);
-				lock.acquireWriteLock();
-				map.put(inputline, results);
-				lock.releaseWriteLock();
+				if (cache != null) {
+					String query = cacheKey(querylist);
+					long generation = index.getGeneration();
+					results = cache.get(query, generation);
+					if (results == null) {
+						results = search(querylist);
+						cache.put(query, generation, results);
+					}
+				} else {
+					results = search(querylist);
+				}
 			}
+			addResults(sequence, inputline, results);
 			decrementPending();
 		}
+
+		/**
+		 * Searches the index for the query words.
+		 * 
+		 * @param querylist
+		 * @return sorted list of search results
+		 */
+		private ArrayList<SearchResults> search(ArrayList<String> querylist) {
+			if (booleanQueries) {
+				return BooleanQuery.parse(querylist).search(index, exact, limit);
+			}
+			if (pruning && limit < Integer.MAX_VALUE
+					&& index.getDocuments().getScorer() != null) {
+				MaxScoreQuery query = new MaxScoreQuery(querylist);
+				ArrayList<SearchResults> results = query.search(index, exact,
+						limit);
+				log.debug("Skipped {} of {} postings for {}.",
+						query.getSkipped(), query.getTotal(), inputline);
+				addSkipped(query.getSkipped(), query.getTotal());
+				return results;
+			}
+			return exact ? index.exactSearch(querylist, limit) : index
+					.partialSearch(querylist, limit);
+		}
+	}
+
+	/**
+	 * Writes one query line followed by its results, one per line, and a
+	 * blank line.
+	 * 
+	 * @param writer
+	 *            writer of the results file
+	 * @param query
+	 *            the query line
+	 * @param results
+	 *            sorted results of the line
+	 * @throws IOException
+	 */
+	public static void writeResults(BufferedWriter writer, String query,
+			ArrayList<SearchResults> results) throws IOException {
+		writer.write(query);
+		writer.newLine();
+		for (SearchResults sr : results) {
+			writer.write('"' + sr.getPath() + '"' + ", ");
+			writer.write(sr.getFrequency() + ", " + sr.getPosition());
+			writer.newLine();
+		}
+		writer.newLine();
 	}
 
 	/**
@@ -165,14 +549,7 @@ public class QueryFileParser {
 		try (BufferedWriter writer = Files.newBufferedWriter(path,
 				Charset.forName("UTF-8"))) {
 			for (String query : map.keySet()) {
-				writer.write(query);
-				writer.newLine();
-				for (SearchResults sr : map.get(query)) {
-					writer.write('"' + sr.getPath() + '"' + ", ");
-					writer.write(sr.getFrequency() + ", " + sr.getPosition());
-					writer.newLine();
-				}
-				writer.newLine();
+				writeResults(writer, query, map.get(query));
 			}
 			writer.newLine();
 		} catch (IOException e) {
@@ -181,4 +558,24 @@ public class QueryFileParser {
 		}
 		lock.releaseReadLock();
 	}
+
+	/**
+	 * Exports every query line and its results to the file with the encoder,
+	 * in the same order as {@link #printResults(String)}.
+	 * 
+	 * @param filename
+	 * @param encoder
+	 */
+	public void exportResults(String filename, ExportEncoder encoder) {
+		lock.acquireReadLock();
+		try (ExportEncoder output = encoder.open(filename)) {
+			for (String query : map.keySet()) {
+				output.writeQuery(query, map.get(query));
+			}
+		} catch (IOException e) {
+			System.out.println("The file " + filename
+					+ " could not be written out to.");
+		}
+		lock.releaseReadLock();
+	}
 }
\ No newline at end of file
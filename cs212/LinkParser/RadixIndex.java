@@ -0,0 +1,539 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A read-only index that stores its words in a compressed radix tree. Each
+ * edge of the tree is labelled with a run of characters, and a node with only
+ * one child is merged in to it, so a word is found by comparing each of its
+ * characters once. A prefix search walks down to the node where the prefix
+ * ends and then reads the whole subtree below it, without ever comparing the
+ * words inside the subtree against the prefix.
+ *
+ * Every node knows how many words, postings and distinct documents are in its
+ * subtree, so questions such as how many documents a prefix matches are
+ * answered without reading any postings, and completions of a prefix can stop
+ * as soon as enough words are found.
+ *
+ * The tree shares its postings with the index it was built from, which must
+ * not be changed afterwards. Once built the tree is never changed, so
+ * searches need no lock.
+ *
+ * @author Paul Hundal
+ *
+ */
+public class RadixIndex implements SearchableIndex {
+
+	private static Logger log = LogManager.getLogger();
+
+	private final Node root;
+	private final DocumentTable documents;
+	private final long generation;
+
+	/**
+	 * Builds the tree out of every word of the given index.
+	 *
+	 * @param index
+	 *            index to build from, which must not change afterwards
+	 */
+	public RadixIndex(InvertedIndex index) {
+		root = new Node(new char[0], null);
+		documents = index.getDocuments();
+		generation = index.getGeneration();
+
+		index.visit(new TermVisitor() {
+			@Override
+			public void visit(String word, TermPostings postings) {
+				insert(word, postings);
+			}
+		});
+		addStatistics(root);
+		log.info("Built a radix tree of {} words and {} documents.",
+				root.words, root.documents);
+	}
+
+	@Override
+	public DocumentTable getDocuments() {
+		return documents;
+	}
+
+	/**
+	 * Returns the generation of the index the tree was built from.
+	 */
+	@Override
+	public long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Adds one word, splitting the edge it leaves the tree on if the word
+	 * only shares part of the label.
+	 *
+	 * @param word
+	 * @param postings
+	 */
+	private void insert(String word, TermPostings postings) {
+		Node node = root;
+		int offset = 0;
+
+		while (offset < word.length()) {
+			int index = node.indexOf(word.charAt(offset));
+			if (index < 0) {
+				node.insert(-(index + 1), new Node(word.substring(offset)
+						.toCharArray(), postings));
+				return;
+			}
+
+			Node child = node.children[index];
+			int shared = 0;
+			int max = Math.min(child.label.length, word.length() - offset);
+			while (shared < max
+					&& child.label[shared] == word.charAt(offset + shared)) {
+				shared++;
+			}
+
+			if (shared < child.label.length) {
+				Node split = new Node(Arrays.copyOf(child.label, shared), null);
+				child.label = Arrays.copyOfRange(child.label, shared,
+						child.label.length);
+				split.insert(0, child);
+				node.children[index] = split;
+				child = split;
+			}
+			node = child;
+			offset += shared;
+		}
+		node.postings = postings;
+	}
+
+	/**
+	 * Fills in the subtree statistics of a node and everything below it.
+	 *
+	 * @param node
+	 * @return the documents found in the subtree
+	 */
+	private static BitSet addStatistics(Node node) {
+		BitSet found = new BitSet();
+		if (node.postings != null) {
+			node.words++;
+			node.postingsCount += node.postings.size();
+			for (int i = 0; i < node.postings.size(); i++) {
+				found.set(node.postings.getDocument(i));
+			}
+		}
+		for (int i = 0; i < node.size; i++) {
+			Node child = node.children[i];
+			found.or(addStatistics(child));
+			node.words += child.words;
+			node.postingsCount += child.postingsCount;
+		}
+		node.documents = found.cardinality();
+		return found;
+	}
+
+	/**
+	 * Returns the node whose subtree holds every word starting with the
+	 * prefix, or <code>null</code> if no word does. The prefix may end part
+	 * way along the label of the node returned.
+	 *
+	 * @param prefix
+	 * @return subtree of the prefix or <code>null</code>
+	 */
+	private Node findPrefix(String prefix) {
+		return findPrefix(prefix, null);
+	}
+
+	/**
+	 * Finds the subtree of the prefix like {@link #findPrefix(String)}, also
+	 * adding the full label of every node on the way down to the given
+	 * builder, so it ends up holding the word of the node returned.
+	 *
+	 * @param prefix
+	 * @param path
+	 *            builder to add the labels to, or <code>null</code>
+	 * @return subtree of the prefix or <code>null</code>
+	 */
+	private Node findPrefix(String prefix, StringBuilder path) {
+		Node node = root;
+		int offset = 0;
+
+		while (offset < prefix.length()) {
+			int index = node.indexOf(prefix.charAt(offset));
+			if (index < 0) {
+				return null;
+			}
+			Node child = node.children[index];
+			int max = Math.min(child.label.length, prefix.length() - offset);
+			for (int i = 0; i < max; i++) {
+				if (child.label[i] != prefix.charAt(offset + i)) {
+					return null;
+				}
+			}
+			if (path != null) {
+				path.append(child.label);
+			}
+			node = child;
+			offset += max;
+		}
+		return node;
+	}
+
+	/**
+	 * Returns the node of the word itself, or <code>null</code> if the word is
+	 * not in the tree.
+	 *
+	 * @param word
+	 * @return node of the word or <code>null</code>
+	 */
+	private Node findWord(String word) {
+		Node node = root;
+		int offset = 0;
+
+		while (offset < word.length()) {
+			int index = node.indexOf(word.charAt(offset));
+			if (index < 0) {
+				return null;
+			}
+			Node child = node.children[index];
+			if (child.label.length > word.length() - offset) {
+				return null;
+			}
+			for (int i = 0; i < child.label.length; i++) {
+				if (child.label[i] != word.charAt(offset + i)) {
+					return null;
+				}
+			}
+			node = child;
+			offset += child.label.length;
+		}
+		return node.postings != null ? node : null;
+	}
+
+	@Override
+	public ArrayList<SearchResults> partialSearch(ArrayList<String> querywords,
+			int limit) {
+		SearchAccumulator tempResults = new SearchAccumulator(documents);
+
+		for (String word : querywords) {
+			Node node = findPrefix(word);
+			if (node != null) {
+				addSubtree(node, tempResults);
+			}
+		}
+		return tempResults.getResults(documents, limit);
+	}
+
+	@Override
+	public ArrayList<SearchResults> partialSearch(ArrayList<String> querywords) {
+		return partialSearch(querywords, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Adds the postings of every word in the subtree to the results.
+	 *
+	 * @param node
+	 * @param tempResults
+	 */
+	private static void addSubtree(Node node, SearchAccumulator tempResults) {
+		if (node.postings != null) {
+			tempResults.addAll(node.postings);
+		}
+		for (int i = 0; i < node.size; i++) {
+			addSubtree(node.children[i], tempResults);
+		}
+	}
+
+	@Override
+	public ArrayList<SearchResults> exactSearch(ArrayList<String> querywords,
+			int limit) {
+		SearchAccumulator tempResults = new SearchAccumulator(documents);
+
+		for (String word : querywords) {
+			Node node = findWord(word);
+			if (node != null) {
+				tempResults.addAll(node.postings);
+			}
+		}
+		return tempResults.getResults(documents, limit);
+	}
+
+	@Override
+	public ArrayList<SearchResults> exactSearch(ArrayList<String> querywords) {
+		return exactSearch(querywords, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Returns the matches of one query word. A word, or a prefix whose
+	 * subtree holds only one word, is read straight out of its postings.
+	 */
+	@Override
+	public Matches getMatches(String word, boolean exact) {
+		Node node = exact ? findWord(word) : findPrefix(word);
+		if (node == null) {
+			return MatchList.empty();
+		}
+		if (exact || node.words == 1 && node.postings != null) {
+			return Matches.of(node.postings, documents.getScorer());
+		}
+		SearchAccumulator tempResults = new SearchAccumulator(documents);
+		addSubtree(node, tempResults);
+		return tempResults.toMatchList();
+	}
+
+	@Override
+	public ArrayList<Matches> getTermMatches(String word, boolean exact) {
+		ArrayList<Matches> lists = new ArrayList<Matches>();
+		Node node = exact ? findWord(word) : findPrefix(word);
+		if (node == null) {
+			return lists;
+		}
+		if (exact) {
+			lists.add(Matches.of(node.postings, documents.getScorer()));
+		} else {
+			addSubtree(node, documents.getScorer(), lists);
+		}
+		return lists;
+	}
+
+	@Override
+	public ArrayList<ArrayList<Matches>> getTermMatches(String[] words,
+			boolean exact) {
+		ArrayList<ArrayList<Matches>> lists = new ArrayList<ArrayList<Matches>>();
+		for (String word : words) {
+			lists.add(getTermMatches(word, exact));
+		}
+		return lists;
+	}
+
+	/**
+	 * Adds the matches of every word in the subtree to the lists, in the same
+	 * order {@link #addSubtree(Node, SearchAccumulator)} adds them up.
+	 *
+	 * @param node
+	 * @param scorer
+	 * @param lists
+	 */
+	private static void addSubtree(Node node, Scorer scorer,
+			ArrayList<Matches> lists) {
+		if (node.postings != null) {
+			lists.add(Matches.of(node.postings, scorer));
+		}
+		for (int i = 0; i < node.size; i++) {
+			addSubtree(node.children[i], scorer, lists);
+		}
+	}
+
+	@Override
+	public TermPostings getPostings(String word) {
+		Node node = findWord(word);
+		return node != null ? node.postings : null;
+	}
+
+	/**
+	 * Returns the number of words starting with the prefix.
+	 *
+	 * @param prefix
+	 * @return number of words
+	 */
+	public int getWordCount(String prefix) {
+		Node node = findPrefix(prefix);
+		return node != null ? node.words : 0;
+	}
+
+	/**
+	 * Returns the number of distinct documents containing a word that starts
+	 * with the prefix.
+	 *
+	 * @param prefix
+	 * @return number of documents
+	 */
+	public int getDocumentCount(String prefix) {
+		Node node = findPrefix(prefix);
+		return node != null ? node.documents : 0;
+	}
+
+	/**
+	 * Returns the number of word and document pairs under the prefix, which
+	 * is how many postings a partial search for it would read.
+	 *
+	 * @param prefix
+	 * @return number of postings
+	 */
+	public long getPostingsCount(String prefix) {
+		Node node = findPrefix(prefix);
+		return node != null ? node.postingsCount : 0;
+	}
+
+	/**
+	 * Returns the first words in sorted order that start with the prefix,
+	 * stopping as soon as enough are found.
+	 *
+	 * @param prefix
+	 * @param limit
+	 *            largest number of words to return
+	 * @return sorted words starting with the prefix
+	 */
+	public ArrayList<String> complete(String prefix, int limit) {
+		ArrayList<String> words = new ArrayList<String>(Math.min(limit, 16));
+		StringBuilder word = new StringBuilder();
+		Node node = findPrefix(prefix, word);
+		if (node != null && limit > 0) {
+			collect(node, word, words, limit);
+		}
+		return words;
+	}
+
+	/**
+	 * Adds the words of the subtree to the list in sorted order until the
+	 * list is full.
+	 *
+	 * @param node
+	 * @param word
+	 *            the word of the node, which is restored before returning
+	 * @param words
+	 * @param limit
+	 */
+	private static void collect(Node node, StringBuilder word,
+			ArrayList<String> words, int limit) {
+		if (node.postings != null) {
+			words.add(word.toString());
+		}
+		for (int i = 0; i < node.size && words.size() < limit; i++) {
+			Node child = node.children[i];
+			word.append(child.label);
+			collect(child, word, words, limit);
+			word.setLength(word.length() - child.label.length);
+		}
+	}
+
+	@Override
+	public void printMap(String filename) {
+		try (MapWriter outputMap = new MapWriter(filename, documents)) {
+			write(root, new StringBuilder(), outputMap);
+		} catch (IOException e) {
+			System.out.println("Your text file " + filename
+					+ " cannot be accessed.");
+		}
+	}
+
+	@Override
+	public void exportMap(String filename, ExportEncoder encoder) {
+		int[] ranks = documents.getRanks();
+		try (ExportEncoder output = encoder.open(filename)) {
+			export(root, new StringBuilder(), output, ranks);
+		} catch (IOException e) {
+			System.out.println("Your text file " + filename
+					+ " cannot be accessed.");
+		}
+	}
+
+	/**
+	 * Writes every word of the subtree in sorted order.
+	 *
+	 * @param node
+	 * @param word
+	 *            the word of the node, which is restored before returning
+	 * @param outputMap
+	 * @throws IOException
+	 */
+	private void write(Node node, StringBuilder word, MapWriter outputMap)
+			throws IOException {
+		if (node.postings != null) {
+			outputMap.writeWord(word.toString(), node.postings);
+		}
+		for (int i = 0; i < node.size; i++) {
+			Node child = node.children[i];
+			word.append(child.label);
+			write(child, word, outputMap);
+			word.setLength(word.length() - child.label.length);
+		}
+	}
+
+	/**
+	 * Exports every word of the subtree in sorted order.
+	 *
+	 * @param node
+	 * @param word
+	 *            the word of the node, which is restored before returning
+	 * @param output
+	 * @param ranks
+	 *            path order of every document id
+	 * @throws IOException
+	 */
+	private void export(Node node, StringBuilder word, ExportEncoder output,
+			int[] ranks) throws IOException {
+		if (node.postings != null) {
+			output.writeWord(word.toString(), node.postings, documents, ranks);
+		}
+		for (int i = 0; i < node.size; i++) {
+			Node child = node.children[i];
+			word.append(child.label);
+			export(child, word, output, ranks);
+			word.setLength(word.length() - child.label.length);
+		}
+	}
+
+	/**
+	 * A node of the tree, reached by the characters of its label. Children
+	 * are kept sorted by the first character of their label, so reading them
+	 * in order visits the words in sorted order.
+	 */
+	private static class Node {
+		private char[] label;
+		private TermPostings postings;
+		private Node[] children;
+		private int size;
+		private int words;
+		private int documents;
+		private long postingsCount;
+
+		public Node(char[] label, TermPostings postings) {
+			this.label = label;
+			this.postings = postings;
+			this.children = new Node[2];
+			this.size = 0;
+		}
+
+		/**
+		 * Finds the child whose label starts with the given character.
+		 *
+		 * @param c
+		 * @return offset of the child, or <code>-(insertion point) - 1</code>
+		 */
+		public int indexOf(char c) {
+			int low = 0;
+			int high = size - 1;
+			while (low <= high) {
+				int middle = (low + high) >>> 1;
+				char first = children[middle].label[0];
+				if (first < c) {
+					low = middle + 1;
+				} else if (first > c) {
+					high = middle - 1;
+				} else {
+					return middle;
+				}
+			}
+			return -(low + 1);
+		}
+
+		/**
+		 * Inserts a child at the given offset.
+		 *
+		 * @param index
+		 * @param child
+		 */
+		public void insert(int index, Node child) {
+			if (size == children.length) {
+				children = Arrays.copyOf(children, size * 2);
+			}
+			System.arraycopy(children, index, children, index + 1, size - index);
+			children[index] = child;
+			size++;
+		}
+	}
+}
@@ -0,0 +1,151 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Writes the results of a query file while it is still being searched. Every
+ * query line gets a number in the order it was read. Lines finish in any
+ * order, so a finished line waits in a reorder buffer until every line before
+ * it has been written, and is dropped from the buffer as soon as it is
+ * written. Only the lines that finished ahead of a slower one are ever held
+ * in memory.
+ *
+ * The file looks the same as the one written by
+ * {@link QueryFileParser#printResults(String)}, or by
+ * {@link QueryFileParser#exportResults(String, ExportEncoder)} if the results
+ * are streamed through an {@link ExportEncoder}.
+ *
+ * @author Paul Hundal
+ *
+ */
+public class ResultStream {
+
+	private static Logger log = LogManager.getLogger();
+	private final String filename;
+	private final BufferedWriter writer;
+	private final ExportEncoder encoder;
+	private final HashMap<Integer, String> queries;
+	private final HashMap<Integer, ArrayList<SearchResults>> waiting;
+	private int next;
+	private boolean failed;
+
+	/**
+	 * Opens the file the results are written to.
+	 *
+	 * @param filename
+	 *            file to write
+	 * @throws IOException
+	 *             if the file cannot be opened
+	 */
+	public ResultStream(String filename) throws IOException {
+		this(filename, null);
+	}
+
+	/**
+	 * Opens the file the results are written to in the format of the
+	 * encoder.
+	 *
+	 * @param filename
+	 *            file to write
+	 * @param encoder
+	 *            encoder of the results, or <code>null</code> to write text
+	 * @throws IOException
+	 *             if the file cannot be opened
+	 */
+	public ResultStream(String filename, ExportEncoder encoder)
+			throws IOException {
+		this.filename = filename;
+		if (encoder != null) {
+			this.writer = null;
+			this.encoder = encoder.open(filename);
+		} else {
+			this.writer = Files.newBufferedWriter(Paths.get(filename),
+					Charset.forName("UTF-8"));
+			this.encoder = null;
+		}
+		this.queries = new HashMap<Integer, String>();
+		this.waiting = new HashMap<Integer, ArrayList<SearchResults>>();
+		this.next = 0;
+		this.failed = false;
+	}
+
+	/**
+	 * Adds the results of a finished line, and writes it together with any
+	 * lines after it that were waiting on it.
+	 *
+	 * @param sequence
+	 *            number of the line, counting from zero
+	 * @param query
+	 *            the query line
+	 * @param results
+	 *            sorted results of the line, or <code>null</code> if there
+	 *            were none
+	 */
+	public synchronized void add(int sequence, String query,
+			ArrayList<SearchResults> results) {
+		if (results == null) {
+			results = new ArrayList<SearchResults>();
+		}
+		queries.put(sequence, query);
+		waiting.put(sequence, results);
+
+		while (waiting.containsKey(next)) {
+			write(queries.remove(next), waiting.remove(next));
+			next++;
+		}
+		log.debug("{} lines waiting to be written.", waiting.size());
+	}
+
+	/**
+	 * Writes one line and its results.
+	 *
+	 * @param query
+	 * @param results
+	 */
+	private void write(String query, ArrayList<SearchResults> results) {
+		if (failed) {
+			return;
+		}
+		try {
+			if (encoder != null) {
+				encoder.writeQuery(query, results);
+			} else {
+				QueryFileParser.writeResults(writer, query, results);
+			}
+		} catch (IOException e) {
+			failed = true;
+			System.out.println("The file " + filename
+					+ " could not be written out to.");
+		}
+	}
+
+	/**
+	 * Finishes the file and closes it. Every line should have been added by
+	 * now.
+	 */
+	public synchronized void close() {
+		if (!waiting.isEmpty()) {
+			log.warn("{} lines were never written.", waiting.size());
+		}
+		try {
+			if (encoder != null) {
+				encoder.close();
+			} else {
+				if (!failed) {
+					writer.newLine();
+				}
+				writer.close();
+			}
+		} catch (IOException e) {
+			System.out.println("The file " + filename
+					+ " could not be written out to.");
+		}
+	}
+}
@@ -0,0 +1,55 @@
+/**
+ * Scores how well a document matches a query word. Anything that only depends
+ * on the index, such as the weight of a word found in a given number of
+ * documents or the length of a document, is worked out when the scorer is
+ * created, so scoring a match during a search only combines numbers that are
+ * already known. The {@link DocumentTable} rebuilds its scorer when its
+ * documents change.
+ *
+ * @author Paul Hundal
+ *
+ */
+public interface Scorer {
+
+	/**
+	 * Returns the weight of a word found in the given number of documents.
+	 *
+	 * @param documentFrequency
+	 *            number of documents containing the word
+	 * @return weight of the word
+	 */
+	public float getTermWeight(int documentFrequency);
+
+	/**
+	 * Returns the score of a word in one document.
+	 *
+	 * @param termWeight
+	 *            weight from {@link #getTermWeight(int)}
+	 * @param frequency
+	 *            number of times the word appears in the document
+	 * @param document
+	 *            document id
+	 * @return score of the word in the document
+	 */
+	public float score(float termWeight, int frequency, int document);
+
+	/**
+	 * Returns a score that no document can reach for a word of the given
+	 * weight, however often the word appears in it.
+	 *
+	 * @param termWeight
+	 *            weight from {@link #getTermWeight(int)}
+	 * @return upper bound of {@link #score(float, int, int)}
+	 */
+	public float getMaxScore(float termWeight);
+
+	/**
+	 * Returns a scorer of the same kind for the documents as they are now,
+	 * after documents were added, removed or replaced.
+	 *
+	 * @param documents
+	 *            documents with their lengths recorded
+	 * @return new scorer
+	 */
+	public Scorer rebuild(DocumentTable documents);
+}
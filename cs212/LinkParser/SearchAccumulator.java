@@ -0,0 +1,391 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.PriorityQueue;
+
+/**
+ * Adds up the frequency and earliest position of every document matched by a
+ * search. Totals are kept in arrays indexed by document id, so every match
+ * only touches two array slots instead of hashing the path of the document.
+ *
+ * If the document table has a {@link Scorer}, every match of a word is also
+ * scored and the scores are added up in a third array. Matches of documents
+ * removed from the table are skipped, and are not counted as documents
+ * holding the word when it is weighted.
+ *
+ * @author Paul Hundal
+ *
+ */
+public class SearchAccumulator {
+
+	private int[] frequency;
+	private int[] position;
+	private int[] matched;
+	private int count;
+	private float[] score;
+	private final Scorer scorer;
+	private final DocumentTable table;
+
+	/**
+	 * Creates an accumulator sized for the given number of documents. It will
+	 * grow if a larger document id shows up.
+	 *
+	 * @param documents
+	 *            number of documents in the index
+	 */
+	public SearchAccumulator(int documents) {
+		this(documents, null, null);
+	}
+
+	/**
+	 * Creates an accumulator for a search of the documents in the table,
+	 * scored by the scorer of the table if it has one, that skips documents
+	 * removed from the table.
+	 *
+	 * @param documents
+	 *            document table of the index
+	 */
+	public SearchAccumulator(DocumentTable documents) {
+		this(documents.size(), documents.getScorer(), documents);
+	}
+
+	/**
+	 * Creates an accumulator sized for the given number of documents.
+	 *
+	 * @param documents
+	 *            number of documents in the index
+	 * @param scorer
+	 *            scorer of every match, or <code>null</code>
+	 * @param table
+	 *            table of removed documents, or <code>null</code>
+	 */
+	private SearchAccumulator(int documents, Scorer scorer,
+			DocumentTable table) {
+		frequency = new int[Math.max(documents, 1)];
+		position = new int[frequency.length];
+		matched = new int[16];
+		count = 0;
+		this.scorer = scorer;
+		this.table = table;
+		score = scorer != null ? new float[frequency.length] : null;
+	}
+
+	/**
+	 * Checks if matches are scored.
+	 *
+	 * @return <code>true</code> if there is a scorer
+	 */
+	public boolean isScored() {
+		return scorer != null;
+	}
+
+	/**
+	 * Adds a match for the given document.
+	 *
+	 * @param document
+	 *            document id
+	 * @param freq
+	 *            number of times the word appears in the document
+	 * @param pos
+	 *            first position of the word in the document
+	 */
+	public void add(int document, int freq, int pos) {
+		add(document, freq, pos, 0);
+	}
+
+	/**
+	 * Adds a match for the given document that was already scored.
+	 *
+	 * @param document
+	 *            document id
+	 * @param freq
+	 *            number of times the word appears in the document
+	 * @param pos
+	 *            first position of the word in the document
+	 * @param points
+	 *            score of the match, ignored if matches are not scored
+	 */
+	public void add(int document, int freq, int pos, float points) {
+		if (table != null && table.isRemoved(document)) {
+			return;
+		}
+		if (document >= frequency.length) {
+			int length = Math.max(document + 1, frequency.length * 2);
+			frequency = Arrays.copyOf(frequency, length);
+			position = Arrays.copyOf(position, length);
+			if (score != null) {
+				score = Arrays.copyOf(score, length);
+			}
+		}
+		if (score != null) {
+			score[document] += points;
+		}
+
+		if (frequency[document] == 0) {
+			if (count == matched.length) {
+				matched = Arrays.copyOf(matched, count * 2);
+			}
+			matched[count++] = document;
+			position[document] = pos;
+		} else if (pos < position[document]) {
+			position[document] = pos;
+		}
+		frequency[document] += freq;
+	}
+
+	/**
+	 * Adds a match for every document in the postings of a word.
+	 *
+	 * @param postings
+	 *            documents and positions of the word
+	 */
+	public void addAll(TermPostings postings) {
+		if (scorer == null) {
+			for (int i = 0; i < postings.size(); i++) {
+				PostingList list = postings.getPositions(i);
+				add(postings.getDocument(i), list.size(), list.getFirst());
+			}
+			return;
+		}
+
+		float weight = scorer.getTermWeight(postings.liveSize(table));
+		for (int i = 0; i < postings.size(); i++) {
+			PostingList list = postings.getPositions(i);
+			int document = postings.getDocument(i);
+			add(document, list.size(), list.getFirst(),
+					scorer.score(weight, list.size(), document));
+		}
+	}
+
+	/**
+	 * Adds a match for every document in the postings of a word that is split
+	 * over several parts, such as the segments of an index. The parts are
+	 * walked side by side, so a document found in more than one part is
+	 * scored once with its frequencies added up, and the number of documents
+	 * containing the word counts every document once, leaving out removed
+	 * documents. The scores come out the same as if the word had been searched
+	 * in one index.
+	 *
+	 * @param parts
+	 *            postings of the word in each part
+	 */
+	public void addAll(ArrayList<TermPostings> parts) {
+		if (scorer == null || parts.size() == 1) {
+			for (TermPostings postings : parts) {
+				addAll(postings);
+			}
+			return;
+		}
+
+		int[] offsets = new int[parts.size()];
+		int documentFrequency = 0;
+		int document;
+		while ((document = nextDocument(parts, offsets)) >= 0) {
+			if (table == null || !table.isRemoved(document)) {
+				documentFrequency++;
+			}
+		}
+
+		float weight = scorer.getTermWeight(documentFrequency);
+		Arrays.fill(offsets, 0);
+		while ((document = nextDocument(parts, offsets)) >= 0) {
+			int freq = 0;
+			int pos = Integer.MAX_VALUE;
+			for (int i = 0; i < offsets.length; i++) {
+				TermPostings postings = parts.get(i);
+				int offset = offsets[i] - 1;
+				if (offset >= 0 && postings.getDocument(offset) == document) {
+					PostingList list = postings.getPositions(offset);
+					freq += list.size();
+					pos = Math.min(pos, list.getFirst());
+				}
+			}
+			add(document, freq, pos, scorer.score(weight, freq, document));
+		}
+	}
+
+	/**
+	 * Finds the smallest document id that the parts have not reached yet, and
+	 * moves every part holding it past it.
+	 *
+	 * @param parts
+	 * @param offsets
+	 *            next offset of each part
+	 * @return document id, or -1 once every part has been walked
+	 */
+	private static int nextDocument(ArrayList<TermPostings> parts,
+			int[] offsets) {
+		int document = -1;
+		for (int i = 0; i < offsets.length; i++) {
+			TermPostings postings = parts.get(i);
+			if (offsets[i] < postings.size()) {
+				int current = postings.getDocument(offsets[i]);
+				if (document < 0 || current < document) {
+					document = current;
+				}
+			}
+		}
+		if (document >= 0) {
+			for (int i = 0; i < offsets.length; i++) {
+				TermPostings postings = parts.get(i);
+				if (offsets[i] < postings.size()
+						&& postings.getDocument(offsets[i]) == document) {
+					offsets[i]++;
+				}
+			}
+		}
+		return document;
+	}
+
+	/**
+	 * Adds every document of the matches, with the scores they already hold.
+	 *
+	 * @param matches
+	 *            documents matched by a word
+	 */
+	public void addAll(Matches matches) {
+		for (int i = matches.skip(0); i < matches.size(); i = matches
+				.skip(i + 1)) {
+			add(matches.getDocument(i), matches.getFrequency(i),
+					matches.getPosition(i), matches.getScore(i));
+		}
+	}
+
+	/**
+	 * Adds a match of one word for the given document, scoring it if matches
+	 * are scored.
+	 *
+	 * @param document
+	 *            document id
+	 * @param freq
+	 *            number of times the word appears in the document
+	 * @param pos
+	 *            first position of the word in the document
+	 * @param documentFrequency
+	 *            number of documents containing the word
+	 */
+	public void addTerm(int document, int freq, int pos, int documentFrequency) {
+		if (scorer == null) {
+			add(document, freq, pos);
+		} else {
+			add(document, freq, pos, scorer.score(
+					scorer.getTermWeight(documentFrequency), freq, document));
+		}
+	}
+
+	/**
+	 * Returns the document id, frequency and earliest position of every
+	 * matched document, three values each, in the order they were matched.
+	 *
+	 * @return matched documents and their totals
+	 */
+	public int[] toArray() {
+		int[] totals = new int[count * 3];
+		for (int i = 0; i < count; i++) {
+			int document = matched[i];
+			totals[i * 3] = document;
+			totals[i * 3 + 1] = frequency[document];
+			totals[i * 3 + 2] = position[document];
+		}
+		return totals;
+	}
+
+	/**
+	 * Returns every matched document and its totals in ascending order of
+	 * document id.
+	 *
+	 * @return matches sorted by document id
+	 */
+	public MatchList toMatchList() {
+		int[] documents = Arrays.copyOf(matched, count);
+		Arrays.sort(documents);
+		int[] totals = new int[count];
+		int[] first = new int[count];
+		float[] scores = score != null ? new float[count] : null;
+		for (int i = 0; i < count; i++) {
+			totals[i] = frequency[documents[i]];
+			first[i] = position[documents[i]];
+			if (scores != null) {
+				scores[i] = score[documents[i]];
+			}
+		}
+		return new MatchList(documents, totals, first, scores);
+	}
+
+	/**
+	 * Forgets every match, so the accumulator can be used again without
+	 * clearing the whole of its arrays.
+	 */
+	public void clear() {
+		for (int i = 0; i < count; i++) {
+			frequency[matched[i]] = 0;
+			if (score != null) {
+				score[matched[i]] = 0;
+			}
+		}
+		count = 0;
+	}
+
+	/**
+	 * Returns the sorted results of every matched document.
+	 *
+	 * @param documents
+	 *            table used to resolve document ids to paths
+	 * @return sorted list of search results
+	 */
+	public ArrayList<SearchResults> getResults(DocumentTable documents) {
+		ArrayList<SearchResults> results = new ArrayList<SearchResults>(count);
+		for (int i = 0; i < count; i++) {
+			int document = matched[i];
+			results.add(newResult(document, documents));
+		}
+		Collections.sort(results);
+		return results;
+	}
+
+	/**
+	 * Returns the best results in sorted order, without sorting every matched
+	 * document. The heap is ordered worst first, so each new result only has
+	 * to beat the head of the heap to take its place.
+	 *
+	 * @param documents
+	 *            table used to resolve document ids to paths
+	 * @param limit
+	 *            largest number of results to return
+	 * @return sorted list of at most <code>limit</code> search results
+	 */
+	public ArrayList<SearchResults> getResults(DocumentTable documents,
+			int limit) {
+		if (limit >= count) {
+			return getResults(documents);
+		}
+
+		PriorityQueue<SearchResults> heap = new PriorityQueue<SearchResults>(
+				Math.max(limit, 1), Collections.reverseOrder());
+		for (int i = 0; i < count && limit > 0; i++) {
+			SearchResults result = newResult(matched[i], documents);
+			if (heap.size() < limit) {
+				heap.add(result);
+			} else if (result.compareTo(heap.peek()) < 0) {
+				heap.poll();
+				heap.add(result);
+			}
+		}
+
+		ArrayList<SearchResults> results = new ArrayList<SearchResults>(heap);
+		Collections.sort(results);
+		return results;
+	}
+
+	/**
+	 * Creates the result of one matched document.
+	 *
+	 * @param document
+	 * @param documents
+	 * @return search result with the totals of the document
+	 */
+	private SearchResults newResult(int document, DocumentTable documents) {
+		return new SearchResults(document, documents, frequency[document],
+				position[document], score != null ? score[document] : 0);
+	}
+}
@@ -10,30 +10,56 @@
  */
 public class SearchResults implements Comparable<SearchResults> {
 	
-	private final String path;
+	private final int document;
+	private final DocumentTable documents;
 	private int frequency;
 	private int position;
+	private final float score;
+	private String path;
 	
 	/**
-	 * Constructor : Constructs a SearchResults object. 
-	 * @param route
+	 * Constructor : Constructs a SearchResults object. The path is only
+	 * looked up in the document table when it is needed.
+	 * @param doc
+	 * @param table
 	 * @param freq
 	 * @param pos
 	 */
-	public SearchResults(String route, int freq, int pos) {
-		path = route;
+	public SearchResults(int doc, DocumentTable table, int freq, int pos) {
+		this(doc, table, freq, pos, 0);
+	}
+	
+	/**
+	 * Constructs a SearchResults object ranked by the score given by a
+	 * {@link Scorer}.
+	 * @param doc
+	 * @param table
+	 * @param freq
+	 * @param pos
+	 * @param score
+	 */
+	public SearchResults(int doc, DocumentTable table, int freq, int pos,
+			float score) {
+		document = doc;
+		documents = table;
 		frequency = freq;
 		position = pos;
-		
+		this.score = score;
 	}
 	
 	/**
 	 * Comparator method that compares search result objects
-	 * based on their frequency, then position, and then path. 
+	 * based on their score, then frequency, then position, and then path.
+	 * Results of a search without a scorer all have a score of zero.
+	 * The path of each result is looked up once, the first time it ties.
 	 */
 	@Override
 	public int compareTo(SearchResults other) {
 		
+		if(this.score != other.score){
+			return Float.compare(other.score, this.score);
+		}
+		
 		if(this.frequency != other.frequency){
 			return Integer.compare(other.frequency, this.frequency);
 		}
@@ -42,7 +68,8 @@ public class SearchResults implements Comparable<SearchResults> {
 			return Integer.compare(this.position, other.position);
 		}
 		
-		return String.CASE_INSENSITIVE_ORDER.compare(this.path, other.path);
+		return String.CASE_INSENSITIVE_ORDER.compare(this.getPath(),
+				other.getPath());
 	}
 		
 	/**
@@ -53,6 +80,14 @@ public class SearchResults implements Comparable<SearchResults> {
 		return this.frequency;
 	}
 	
+	/**
+	 * Returns the score of this search result. 
+	 * @return
+	 */
+	public float getScore() {
+		return this.score;
+	}
+	
 	/**
 	 * Returns the position of this search result. 
 	 * @return
@@ -62,11 +97,23 @@ public class SearchResults implements Comparable<SearchResults> {
 	}
 	
 	/**
-	 * Returns the path of this search result. 
+	 * Returns the path of this search result, looking it up in the
+	 * document table the first time it is needed.
 	 * @return
 	 */
 	public String getPath() {
-		return this.path;
+		if(path == null){
+			path = documents.getPath(document);
+		}
+		return path;
+	}
+	
+	/**
+	 * Returns the document id of this search result. 
+	 * @return
+	 */
+	public int getDocument() {
+		return this.document;
 	}
 	
 	/** 
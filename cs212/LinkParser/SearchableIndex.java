@@ -0,0 +1,150 @@
+import java.util.ArrayList;
+
+/**
+ * The operations shared by every kind of index that can be searched and
+ * printed, whether it was built in memory or loaded from disk.
+ * 
+ * @author Paul Hundal
+ * 
+ */
+public interface SearchableIndex {
+
+	/**
+	 * Returns the document table used to resolve document ids to paths.
+	 * 
+	 * @return document table
+	 */
+	public DocumentTable getDocuments();
+
+	/**
+	 * Returns a number that goes up every time words are added to the index,
+	 * so results saved from an earlier search can be recognized as stale.
+	 * 
+	 * @return generation number
+	 */
+	public long getGeneration();
+
+	/**
+	 * Returns the sorted results of every document containing a word that
+	 * starts with one of the query words.
+	 * 
+	 * @param querywords
+	 * @return sorted list of search results
+	 */
+	public ArrayList<SearchResults> partialSearch(ArrayList<String> querywords);
+
+	/**
+	 * Returns only the best results of a partial search, in sorted order. The
+	 * results are picked with a heap holding at most <code>limit</code>
+	 * results, so a broad query does not pay for sorting every match.
+	 * 
+	 * @param querywords
+	 * @param limit
+	 *            largest number of results to return
+	 * @return sorted list of at most <code>limit</code> search results
+	 */
+	public ArrayList<SearchResults> partialSearch(ArrayList<String> querywords,
+			int limit);
+
+	/**
+	 * Returns the sorted results of every document containing one of the query
+	 * words exactly, looking each word up directly instead of scanning the
+	 * range of words that start with it.
+	 * 
+	 * @param querywords
+	 * @return sorted list of search results
+	 */
+	public ArrayList<SearchResults> exactSearch(ArrayList<String> querywords);
+
+	/**
+	 * Returns only the best results of an exact search, in sorted order.
+	 * 
+	 * @param querywords
+	 * @param limit
+	 *            largest number of results to return
+	 * @return sorted list of at most <code>limit</code> search results
+	 */
+	public ArrayList<SearchResults> exactSearch(ArrayList<String> querywords,
+			int limit);
+
+	/**
+	 * Returns the documents matched by a single query word, in ascending
+	 * order of document id, for combining in a {@link BooleanQuery}. When the
+	 * word matches only one word of the index the matches may read straight
+	 * out of its postings, so they must only be used while the index is not
+	 * being written to. A prefix matching several words adds up all of their
+	 * postings before returning, so it costs as much as a plain search of the
+	 * prefix.
+	 * 
+	 * @param word
+	 *            query word
+	 * @param exact
+	 *            <code>true</code> to match the word exactly instead of as a
+	 *            prefix
+	 * @return matched documents
+	 */
+	public Matches getMatches(String word, boolean exact);
+
+	/**
+	 * Returns the matches of every word of the index that a query word
+	 * matches, one list per word in the order a search adds them up, for
+	 * scoring with a {@link MaxScoreQuery}. An index that cannot hand out its
+	 * words separately returns the single list of
+	 * {@link #getMatches(String, boolean)} instead. The same care is needed
+	 * as for that method.
+	 * 
+	 * @param word
+	 *            query word
+	 * @param exact
+	 *            <code>true</code> to match the word exactly instead of as a
+	 *            prefix
+	 * @return matches of each word, possibly empty
+	 */
+	public ArrayList<Matches> getTermMatches(String word, boolean exact);
+
+	/**
+	 * Returns {@link #getTermMatches(String, boolean)} of each of many query
+	 * words at once. An index with a sorted dictionary finds all of them in
+	 * a single pass over its words.
+	 * 
+	 * @param words
+	 *            sorted query words without duplicates
+	 * @param exact
+	 *            <code>true</code> to match the words exactly instead of as
+	 *            prefixes
+	 * @return matches of each word of the index, for each query word in order
+	 */
+	public ArrayList<ArrayList<Matches>> getTermMatches(String[] words,
+			boolean exact);
+
+	/**
+	 * Returns the documents and positions of exactly the given word, for
+	 * matching a {@link PhraseQuery}. Like {@link #getMatches(String, boolean)}
+	 * the postings may be shared with the index, so they must only be read.
+	 * They may still hold documents that were removed but not compacted away,
+	 * which {@link Matches#live(Matches, DocumentTable)} skips.
+	 * 
+	 * @param word
+	 *            query word
+	 * @return postings of the word, or <code>null</code> if it is not in the
+	 *         index
+	 */
+	public TermPostings getPostings(String word);
+
+	/**
+	 * Prints every word, file and position to the given file.
+	 * 
+	 * @param filename
+	 */
+	public void printMap(String filename);
+
+	/**
+	 * Exports every word, file and position to the given file with the
+	 * encoder, in the same order and under the same locking as
+	 * {@link #printMap(String)}.
+	 * 
+	 * @param filename
+	 * @param encoder
+	 */
+	public void exportMap(String filename, ExportEncoder encoder);
+}
@@ -0,0 +1,443 @@
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * An index made of many small immutable segments instead of one large
+ * mutable tree map. Local indexes from the workers are added to a pending
+ * batch, and once enough of them have been added the batch is sealed and
+ * becomes a new segment. Whenever {@link #MERGE_FACTOR} neighbouring segments
+ * of the same level exist, a merge worker on the {@link WorkQueue} copies them
+ * in to one segment of the next level, so the number of segments stays
+ * logarithmic in the number of batches.
+ *
+ * Searches add up their results across the pending batch and every live
+ * segment, so they never wait for a merge to finish. Segments are kept in the
+ * order they were created, and merges only combine neighbours, so positions
+ * of a file spread over several segments are still printed in order.
+ *
+ * Printing and saving walk the sorted words of every segment side by side,
+ * combining the postings of one word at a time, instead of copying all of
+ * the segments in to one index first.
+ *
+ * @author Paul Hundal
+ *
+ */
+public class SegmentedIndex implements WritableIndex {
+
+	/** The number of segments of one level that are merged together. */
+	public static final int MERGE_FACTOR = 4;
+
+	/** The default number of local indexes in each batch. */
+	public static final int DEFAULT = 10;
+
+	private static Logger log = LogManager.getLogger();
+
+	private final DocumentTable documents;
+	private final WorkQueue workers;
+	private final int batchSize;
+	private final ArrayList<Segment> segments;
+	private final Lock lock;
+	private InvertedIndex batch;
+	private int batched;
+	private int pending;
+	private volatile long generation;
+
+	/**
+	 * Creates an empty index that flushes a segment every batch of local
+	 * indexes and merges segments on the given work queue.
+	 *
+	 * @param minions
+	 *            work queue used for merging
+	 * @param batchSize
+	 *            number of local indexes in each segment
+	 */
+	public SegmentedIndex(WorkQueue minions, int batchSize) {
+		documents = new DocumentTable();
+		workers = minions;
+		this.batchSize = batchSize;
+		segments = new ArrayList<Segment>();
+		lock = new Lock();
+		batch = new InvertedIndex(documents);
+		batched = 0;
+		pending = 0;
+		generation = 0;
+	}
+
+	@Override
+	public DocumentTable getDocuments() {
+		return documents;
+	}
+
+	@Override
+	public long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Adds a local index to the pending batch, flushing the batch in to a new
+	 * segment once it is full.
+	 */
+	@Override
+	public void addAll(InvertedIndex localIndex) {
+		InvertedIndex full = null;
+
+		lock.acquireWriteLock();
+		batch.addAll(localIndex);
+		batched++;
+		generation++;
+		if (batched >= batchSize) {
+			full = flushBatch();
+		}
+		lock.releaseWriteLock();
+
+		if (full != null) {
+			full.seal();
+			scheduleMerges();
+		}
+	}
+
+	/**
+	 * Flushes whatever is left in the pending batch in to a segment, and waits
+	 * until every merge it leads to has finished.
+	 */
+	@Override
+	public void seal() {
+		lock.acquireWriteLock();
+		InvertedIndex full = batched > 0 ? flushBatch() : null;
+		lock.releaseWriteLock();
+
+		if (full != null) {
+			full.seal();
+			scheduleMerges();
+		}
+		finish();
+	}
+
+	/**
+	 * Moves the pending batch to the end of the segment list and starts a new
+	 * batch. The batch is never written to again, so it can be sealed after
+	 * the lock is released. Must be called while holding the write lock.
+	 *
+	 * @return the batch that became a segment
+	 */
+	private InvertedIndex flushBatch() {
+		InvertedIndex full = batch;
+		segments.add(new Segment(full, 0));
+		batch = new InvertedIndex(documents);
+		batched = 0;
+		log.debug("Flushed segment {}", segments.size());
+		return full;
+	}
+
+	/**
+	 * Looks for {@link #MERGE_FACTOR} neighbouring segments of the same level
+	 * that are not already being merged, and hands each run found to a merge
+	 * worker.
+	 */
+	private void scheduleMerges() {
+		lock.acquireWriteLock();
+		int start = 0;
+		for (int i = 0; i < segments.size(); i++) {
+			Segment segment = segments.get(i);
+			if (segment.merging) {
+				start = i + 1;
+			} else if (segment.level != segments.get(start).level) {
+				start = i;
+			}
+
+			if (!segment.merging && i - start + 1 == MERGE_FACTOR) {
+				ArrayList<Segment> run = new ArrayList<Segment>(
+						segments.subList(start, i + 1));
+				for (Segment source : run) {
+					source.merging = true;
+				}
+				workers.execute(new MergeWorker(run));
+				start = i + 1;
+			}
+		}
+		lock.releaseWriteLock();
+	}
+
+	/**
+	 * Returns a copy of the pending batch and live segments, oldest first.
+	 *
+	 * @return indexes to search
+	 */
+	private ArrayList<InvertedIndex> getIndexes() {
+		lock.acquireReadLock();
+		ArrayList<InvertedIndex> indexes = new ArrayList<InvertedIndex>(
+				segments.size() + 1);
+		for (Segment segment : segments) {
+			indexes.add(segment.index);
+		}
+		indexes.add(batch);
+		lock.releaseReadLock();
+		return indexes;
+	}
+
+	/**
+	 * Returns the number of live segments, not counting the pending batch.
+	 *
+	 * @return number of segments
+	 */
+	public int size() {
+		lock.acquireReadLock();
+		int size = segments.size();
+		lock.releaseReadLock();
+		return size;
+	}
+
+	@Override
+	public ArrayList<SearchResults> partialSearch(ArrayList<String> querywords,
+			int limit) {
+		SearchAccumulator tempResults = new SearchAccumulator(documents);
+		ArrayList<InvertedIndex> indexes = getIndexes();
+
+		for (String word : querywords) {
+			search(indexes, word, false, tempResults);
+		}
+		return tempResults.getResults(documents, limit);
+	}
+
+	@Override
+	public ArrayList<SearchResults> partialSearch(ArrayList<String> querywords) {
+		return partialSearch(querywords, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public ArrayList<SearchResults> exactSearch(ArrayList<String> querywords,
+			int limit) {
+		SearchAccumulator tempResults = new SearchAccumulator(documents);
+		ArrayList<InvertedIndex> indexes = getIndexes();
+
+		for (String word : querywords) {
+			search(indexes, word, true, tempResults);
+		}
+		return tempResults.getResults(documents, limit);
+	}
+
+	@Override
+	public ArrayList<SearchResults> exactSearch(ArrayList<String> querywords) {
+		return exactSearch(querywords, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Adds up the matches of the word across the pending batch and every
+	 * segment, since a document may be spread over more than one of them.
+	 */
+	@Override
+	public Matches getMatches(String word, boolean exact) {
+		SearchAccumulator tempResults = new SearchAccumulator(documents);
+		search(getIndexes(), word, exact, tempResults);
+		return tempResults.toMatchList();
+	}
+
+	/**
+	 * Adds every document matching the query word in any of the indexes to
+	 * the results. Unscored totals add up the same no matter how a word is
+	 * split, so each index is searched on its own. A scored search collects
+	 * the postings of each word from every index first, so the number of
+	 * documents containing the word, and the frequency of a document spread
+	 * over several indexes, are counted across the whole index.
+	 * 
+	 * @param indexes
+	 *            pending batch and segments, oldest first
+	 * @param word
+	 *            query word
+	 * @param exact
+	 *            <code>true</code> to match the word exactly
+	 * @param tempResults
+	 *            results to add to
+	 */
+	private static void search(ArrayList<InvertedIndex> indexes, String word,
+			boolean exact, SearchAccumulator tempResults) {
+		if (!tempResults.isScored()) {
+			for (InvertedIndex index : indexes) {
+				if (exact) {
+					index.exactSearch(word, tempResults);
+				} else {
+					index.partialSearch(word, tempResults);
+				}
+			}
+			return;
+		}
+
+		TermParts terms = new TermParts();
+		for (InvertedIndex index : indexes) {
+			index.collectTerms(word, exact, terms);
+		}
+		terms.addTo(tempResults);
+	}
+
+	@Override
+	public ArrayList<Matches> getTermMatches(String word, boolean exact) {
+		ArrayList<Matches> lists = new ArrayList<Matches>();
+		lists.add(getMatches(word, exact));
+		return lists;
+	}
+
+	@Override
+	public ArrayList<ArrayList<Matches>> getTermMatches(String[] words,
+			boolean exact) {
+		ArrayList<ArrayList<Matches>> lists = new ArrayList<ArrayList<Matches>>();
+		for (String word : words) {
+			lists.add(getTermMatches(word, exact));
+		}
+		return lists;
+	}
+
+	/**
+	 * Copies the postings of the word out of every segment, oldest first, so
+	 * the positions of a document spread over several segments stay in
+	 * order.
+	 */
+	@Override
+	public TermPostings getPostings(String word) {
+		TermPostings combined = null;
+		for (InvertedIndex index : getIndexes()) {
+			TermPostings postings = index.getPostings(word);
+			if (postings != null) {
+				if (combined == null) {
+					combined = new TermPostings();
+				}
+				combined.copyAll(postings);
+			}
+		}
+		return combined;
+	}
+
+	/**
+	 * Seals the index and prints the words of every segment, combined one
+	 * word at a time.
+	 */
+	@Override
+	public void printMap(String filename) {
+		seal();
+		try (MapWriter outputMap = new MapWriter(filename, documents)) {
+			TermCursor terms = MergedCursor.of(getIndexes());
+			while (terms.next()) {
+				outputMap.writeWord(terms.getWord(), terms.getPostings());
+			}
+		} catch (IOException e) {
+			System.out.println("Your text file " + filename
+					+ " cannot be accessed.");
+		}
+	}
+
+	@Override
+	public void exportMap(String filename, ExportEncoder encoder) {
+		seal();
+		int[] ranks = documents.getRanks();
+		try (ExportEncoder output = encoder.open(filename)) {
+			TermCursor terms = MergedCursor.of(getIndexes());
+			while (terms.next()) {
+				output.writeWord(terms.getWord(), terms.getPostings(),
+						documents, ranks);
+			}
+		} catch (IOException e) {
+			System.out.println("Your text file " + filename
+					+ " cannot be accessed.");
+		}
+	}
+
+	@Override
+	public void saveSegment(String filename) {
+		seal();
+		try {
+			IndexSegment.write(MergedCursor.of(getIndexes()), documents,
+					filename);
+		} catch (IOException e) {
+			System.out.println("The index file " + filename
+					+ " could not be written out to.");
+		}
+	}
+
+	/**
+	 * Increments the count of pending merges.
+	 */
+	private synchronized void incrementPending() {
+		pending++;
+		log.debug("Pending is now {}", pending);
+	}
+
+	/**
+	 * Decrements the count of pending merges.
+	 */
+	private synchronized void decrementPending() {
+		pending--;
+		log.debug("Pending is now {}", pending);
+
+		if (pending <= 0) {
+			this.notifyAll();
+		}
+	}
+
+	/**
+	 * Waits until every scheduled merge has finished.
+	 */
+	public synchronized void finish() {
+		try {
+			while (pending > 0) {
+				log.debug("Waiting until merges finish.");
+				this.wait();
+			}
+		} catch (InterruptedException e) {
+			log.debug("Finish interrupted", e);
+		}
+	}
+
+	/**
+	 * A live segment and its level, which goes up by one every time it is the
+	 * result of a merge.
+	 */
+	private static class Segment {
+		private final InvertedIndex index;
+		private final int level;
+		private boolean merging;
+
+		public Segment(InvertedIndex index, int level) {
+			this.index = index;
+			this.level = level;
+			this.merging = false;
+		}
+	}
+
+	/**
+	 * Copies a run of neighbouring segments in to one new segment, then swaps
+	 * the new segment in to the place of the run.
+	 *
+	 * @author Paul Hundal
+	 *
+	 */
+	private class MergeWorker implements Runnable {
+		private final ArrayList<Segment> run;
+
+		public MergeWorker(ArrayList<Segment> run) {
+			this.run = run;
+			incrementPending();
+		}
+
+		@Override
+		public void run() {
+			InvertedIndex merged = new InvertedIndex(documents);
+			for (Segment segment : run) {
+				merged.copyAll(segment.index);
+			}
+			merged.seal();
+
+			lock.acquireWriteLock();
+			int start = segments.indexOf(run.get(0));
+			segments.subList(start, start + run.size()).clear();
+			segments.add(start, new Segment(merged, run.get(0).level + 1));
+			lock.releaseWriteLock();
+
+			log.debug("Merged {} segments in to level {}", run.size(),
+					run.get(0).level + 1);
+			scheduleMerges();
+			decrementPending();
+		}
+	}
+}
@@ -0,0 +1,182 @@
+import java.util.ArrayList;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * An index that readers can search without ever taking a lock. Searches read
+ * the current {@link IndexSnapshot} through a volatile reference, and keep
+ * using that snapshot until they are done, so every search sees one
+ * consistent point in time no matter what the writers are doing.
+ *
+ * Writers add their local indexes to a private pending index that searches do
+ * not see. Every batch of local indexes, and again when the index is sealed,
+ * the pending words become a new segment of the next snapshot, which is then
+ * published by swapping the reference. The new snapshot shares every older
+ * segment with the current one, so publishing costs the size of the batch.
+ *
+ * @author Paul Hundal
+ *
+ */
+public class SnapshotIndex implements WritableIndex {
+
+	/** The default number of local indexes published together. */
+	public static final int DEFAULT = 10;
+
+	private static Logger log = LogManager.getLogger();
+
+	private final DocumentTable documents;
+	private final int batchSize;
+	private final Lock lock;
+	private volatile IndexSnapshot snapshot;
+	private InvertedIndex pending;
+	private int batched;
+
+	/**
+	 * Creates an empty index that publishes a new snapshot every batch of
+	 * local indexes.
+	 *
+	 * @param batchSize
+	 *            number of local indexes in each snapshot
+	 */
+	public SnapshotIndex(int batchSize) {
+		documents = new DocumentTable();
+		this.batchSize = batchSize;
+		lock = new Lock();
+		snapshot = new IndexSnapshot(documents);
+		pending = new InvertedIndex(documents);
+		batched = 0;
+	}
+
+	@Override
+	public DocumentTable getDocuments() {
+		return documents;
+	}
+
+	/**
+	 * Returns the generation of the current snapshot, so results cached from
+	 * an older snapshot miss once a new one is published.
+	 */
+	@Override
+	public long getGeneration() {
+		return snapshot.getGeneration();
+	}
+
+	/**
+	 * Returns the snapshot searches are using right now.
+	 *
+	 * @return current snapshot
+	 */
+	public IndexSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Adds a local index to the pending changes, publishing a new snapshot
+	 * once a full batch has been added. Only writers take the lock.
+	 */
+	@Override
+	public void addAll(InvertedIndex localIndex) {
+		lock.acquireWriteLock();
+		pending.addAll(localIndex);
+		batched++;
+		if (batched >= batchSize) {
+			publish();
+		}
+		lock.releaseWriteLock();
+	}
+
+	/**
+	 * Publishes whatever changes are still pending.
+	 */
+	@Override
+	public void seal() {
+		lock.acquireWriteLock();
+		publish();
+		lock.releaseWriteLock();
+	}
+
+	/**
+	 * Builds the next snapshot out of the pending changes and swaps it in.
+	 * Must be called while holding the write lock.
+	 */
+	private void publish() {
+		if (batched > 0) {
+			snapshot = snapshot.merge(pending);
+			pending = new InvertedIndex(documents);
+			batched = 0;
+			log.debug("Published snapshot {} with {} segments.",
+					snapshot.getGeneration(), snapshot.size());
+		}
+	}
+
+	@Override
+	public ArrayList<SearchResults> partialSearch(ArrayList<String> querywords,
+			int limit) {
+		IndexSnapshot current = snapshot;
+		SearchAccumulator tempResults = new SearchAccumulator(documents);
+
+		for (String word : querywords) {
+			current.partialSearch(word, tempResults);
+		}
+		return tempResults.getResults(documents, limit);
+	}
+
+	@Override
+	public ArrayList<SearchResults> partialSearch(ArrayList<String> querywords) {
+		return partialSearch(querywords, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public ArrayList<SearchResults> exactSearch(ArrayList<String> querywords,
+			int limit) {
+		IndexSnapshot current = snapshot;
+		SearchAccumulator tempResults = new SearchAccumulator(documents);
+
+		for (String word : querywords) {
+			current.exactSearch(word, tempResults);
+		}
+		return tempResults.getResults(documents, limit);
+	}
+
+	@Override
+	public ArrayList<SearchResults> exactSearch(ArrayList<String> querywords) {
+		return exactSearch(querywords, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public Matches getMatches(String word, boolean exact) {
+		return snapshot.getMatches(word, exact);
+	}
+
+	@Override
+	public ArrayList<Matches> getTermMatches(String word, boolean exact) {
+		return snapshot.getTermMatches(word, exact);
+	}
+
+	@Override
+	public ArrayList<ArrayList<Matches>> getTermMatches(String[] words,
+			boolean exact) {
+		return snapshot.getTermMatches(words, exact);
+	}
+
+	@Override
+	public TermPostings getPostings(String word) {
+		return snapshot.getPostings(word);
+	}
+
+	@Override
+	public void printMap(String filename) {
+		snapshot.printMap(filename);
+	}
+
+	@Override
+	public void exportMap(String filename, ExportEncoder encoder) {
+		snapshot.exportMap(filename, encoder);
+	}
+
+	@Override
+	public void saveSegment(String filename) {
+		snapshot.saveSegment(filename);
+	}
+}
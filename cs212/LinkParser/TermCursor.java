@@ -0,0 +1,31 @@
+/**
+ * Reads the words of an index one at a time, in sorted order, together with
+ * their postings. Unlike a {@link TermVisitor} the reader decides when to move
+ * on, so several cursors can be walked side by side.
+ *
+ * @author Paul Hundal
+ *
+ */
+public interface TermCursor {
+
+	/**
+	 * Moves on to the next word.
+	 *
+	 * @return <code>false</code> if there are no more words
+	 */
+	public boolean next();
+
+	/**
+	 * Returns the current word.
+	 *
+	 * @return word
+	 */
+	public String getWord();
+
+	/**
+	 * Returns the postings of the current word.
+	 *
+	 * @return documents and positions of the word
+	 */
+	public TermPostings getPostings();
+}
@@ -0,0 +1,482 @@
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * A read-only, sorted list of words stored in front-coded blocks. Every block
+ * starts with one word written out in full, and each following word in the
+ * block only stores how many characters it shares with the word before it and
+ * the characters that differ. All blocks live in one character array, so a
+ * prefix search is a binary search over the first word of each block followed
+ * by a sequential read through the array.
+ *
+ * Every word is identified by its ordinal, its place in sorted order, which
+ * callers can use as an offset in to their own arrays. Exact lookups skip the
+ * binary search and go through an open-addressing hash table of ordinals,
+ * checking a candidate by decoding at most one block. The table is only built
+ * on the first exact lookup, so dictionaries that are only walked or searched
+ * by prefix, such as the ones merged away soon after they are built, never
+ * pay for it.
+ *
+ * @author Paul Hundal
+ *
+ */
+public class TermDictionary {
+
+	/** The number of words in each block. */
+	public static final int BLOCK = 16;
+
+	private final char[] data;
+	private final int[] blocks;
+	private final int size;
+	private volatile int[] table;
+
+	/**
+	 * Builds the dictionary from words that are already in sorted order, such
+	 * as the keys of a {@link java.util.TreeMap}.
+	 *
+	 * @param words
+	 *            sorted words without duplicates
+	 */
+	public TermDictionary(Collection<String> words) {
+		char[] buffer = new char[64];
+		int length = 0;
+		int[] starts = new int[words.size() / BLOCK + 1];
+		int count = 0;
+		String previous = "";
+
+		for (String word : words) {
+			int shared = 0;
+			if (count % BLOCK == 0) {
+				starts[count / BLOCK] = length;
+			} else {
+				int max = Math.min(previous.length(), word.length());
+				while (shared < max
+						&& previous.charAt(shared) == word.charAt(shared)) {
+					shared++;
+				}
+			}
+
+			int suffix = word.length() - shared;
+			if (length + suffix + 4 > buffer.length) {
+				buffer = Arrays.copyOf(buffer,
+						Math.max(buffer.length * 2, length + suffix + 4));
+			}
+			length = writeLength(buffer, length, shared);
+			length = writeLength(buffer, length, suffix);
+			word.getChars(shared, word.length(), buffer, length);
+			length += suffix;
+
+			previous = word;
+			count++;
+		}
+
+		data = Arrays.copyOf(buffer, length);
+		blocks = Arrays.copyOf(starts, (count + BLOCK - 1) / BLOCK);
+		size = count;
+		table = null;
+	}
+
+	/**
+	 * Builds the hash table of ordinals. Every slot takes two entries, the
+	 * ordinal plus one and the hash of the word, so an empty slot is zero.
+	 * Two threads may both build the table the first time, which only wastes
+	 * the work of one of them.
+	 *
+	 * @return hash table
+	 */
+	private int[] buildTable() {
+		int capacity = Integer.highestOneBit(Math.max(size * 2, 2) - 1) << 1;
+		int[] slots = new int[capacity * 2];
+		Cursor cursor = cursor();
+		while (cursor.next()) {
+			int hash = cursor.getWord().hashCode();
+			int slot = mix(hash) & (capacity - 1);
+			while (slots[slot * 2] != 0) {
+				slot = (slot + 1) & (capacity - 1);
+			}
+			slots[slot * 2] = cursor.getOrdinal() + 1;
+			slots[slot * 2 + 1] = hash;
+		}
+		table = slots;
+		return slots;
+	}
+
+	/**
+	 * Returns the number of words in the dictionary.
+	 *
+	 * @return number of words
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns a cursor on the first word that is greater than or equal to the
+	 * given word. If every word is smaller the cursor is not valid.
+	 *
+	 * @param word
+	 *            word or prefix to search for
+	 * @return cursor positioned at the first matching word
+	 */
+	public Cursor seek(String word) {
+		int low = 0;
+		int high = blocks.length - 1;
+		int block = 0;
+
+		// find the last block whose first word is smaller than the word
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (compareHead(middle, word) < 0) {
+				block = middle;
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+
+		Cursor cursor = new Cursor(block);
+		while (cursor.next()) {
+			if (cursor.compareTo(word) >= 0) {
+				break;
+			}
+		}
+		return cursor;
+	}
+
+	/**
+	 * Returns the ordinal of the word, or -1 if it is not in the dictionary.
+	 * The word is looked up in the hash table, so this takes constant time no
+	 * matter how many words there are, once the table has been built.
+	 *
+	 * @param word
+	 *            word to look up
+	 * @return ordinal of the word or -1
+	 */
+	public int indexOf(String word) {
+		int[] slots = table;
+		if (slots == null) {
+			slots = buildTable();
+		}
+		int hash = word.hashCode();
+		int mask = slots.length / 2 - 1;
+		int slot = mix(hash) & mask;
+		while (slots[slot * 2] != 0) {
+			int ordinal = slots[slot * 2] - 1;
+			if (slots[slot * 2 + 1] == hash && equalsAt(ordinal, word)) {
+				return ordinal;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the ordinal of the only word starting with the prefix, or -1 if
+	 * no word or more than one word starts with it.
+	 *
+	 * @param prefix
+	 *            prefix to look up
+	 * @return ordinal of the only matching word or -1
+	 */
+	public int indexOfPrefix(String prefix) {
+		Cursor cursor = seek(prefix);
+		if (!cursor.isValid() || !cursor.startsWith(prefix)) {
+			return -1;
+		}
+		int ordinal = cursor.getOrdinal();
+		if (cursor.next() && cursor.startsWith(prefix)) {
+			return -1;
+		}
+		return ordinal;
+	}
+
+	/**
+	 * Finds the words starting with each of many prefixes in one pass. The
+	 * prefixes are sorted, so the words of a prefix follow on from the words
+	 * of the ones before it, and the prefixes that a word starts with are
+	 * always a chain of shorter and longer versions of each other. The pass
+	 * keeps that chain on a stack as it reads the words in order, and jumps
+	 * ahead to the next prefix whenever the chain is empty.
+	 *
+	 * @param prefixes
+	 *            sorted prefixes without duplicates
+	 * @return ordinals of the words starting with each prefix, in order
+	 */
+	public int[][] indexOfPrefixes(String[] prefixes) {
+		int[][] ordinals = new int[prefixes.length][];
+		int[] counts = new int[prefixes.length];
+		for (int i = 0; i < prefixes.length; i++) {
+			ordinals[i] = new int[4];
+		}
+		if (prefixes.length == 0) {
+			return ordinals;
+		}
+
+		int[] stack = new int[prefixes.length];
+		int depth = 0;
+		int next = 0;
+		Cursor cursor = seek(prefixes[0]);
+		while (cursor.isValid()) {
+			while (depth > 0
+					&& !cursor.startsWith(prefixes[stack[depth - 1]])) {
+				depth--;
+			}
+			while (next < prefixes.length
+					&& cursor.compareTo(prefixes[next]) >= 0) {
+				if (cursor.startsWith(prefixes[next])) {
+					stack[depth++] = next;
+				}
+				next++;
+			}
+
+			if (depth == 0) {
+				if (next == prefixes.length) {
+					break;
+				}
+				cursor = seek(prefixes[next]);
+				continue;
+			}
+
+			for (int i = 0; i < depth; i++) {
+				int prefix = stack[i];
+				if (counts[prefix] == ordinals[prefix].length) {
+					ordinals[prefix] = Arrays.copyOf(ordinals[prefix],
+							counts[prefix] * 2);
+				}
+				ordinals[prefix][counts[prefix]++] = cursor.getOrdinal();
+			}
+			cursor.next();
+		}
+
+		for (int i = 0; i < prefixes.length; i++) {
+			ordinals[i] = Arrays.copyOf(ordinals[i], counts[i]);
+		}
+		return ordinals;
+	}
+
+	/**
+	 * Checks if the word at the given ordinal is equal to the given word, by
+	 * decoding the block of the ordinal up to that word.
+	 *
+	 * @param ordinal
+	 * @param word
+	 * @return <code>true</code> if the words are equal
+	 */
+	private boolean equalsAt(int ordinal, String word) {
+		Cursor cursor = new Cursor(ordinal / BLOCK);
+		for (int i = ordinal % BLOCK; i >= 0; i--) {
+			cursor.next();
+		}
+		return cursor.compareTo(word) == 0;
+	}
+
+	/**
+	 * Spreads the high bits of a hash code in to the low bits used to pick a
+	 * slot.
+	 *
+	 * @param hash
+	 * @return mixed hash
+	 */
+	private static int mix(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * Returns a cursor placed before the first word, so the first call to
+	 * {@link Cursor#next()} moves it on to the first word.
+	 *
+	 * @return cursor over every word in order
+	 */
+	public Cursor cursor() {
+		return new Cursor(0);
+	}
+
+	/**
+	 * Returns a cursor placed just before the word with the given ordinal, so
+	 * the first call to {@link Cursor#next()} moves it on to that word. Only
+	 * the words before it in its own block are read.
+	 *
+	 * @param ordinal
+	 *            ordinal of the first word to read
+	 * @return cursor over the words from the ordinal on
+	 */
+	public Cursor cursor(int ordinal) {
+		Cursor cursor = new Cursor(ordinal / BLOCK);
+		for (int i = 0; i < ordinal % BLOCK; i++) {
+			cursor.next();
+		}
+		return cursor;
+	}
+
+	/**
+	 * Compares the first word of a block to the given word, without creating
+	 * a new string.
+	 *
+	 * @param block
+	 * @param word
+	 * @return negative, zero or positive like {@link String#compareTo(String)}
+	 */
+	private int compareHead(int block, String word) {
+		int offset = blocks[block];
+		offset += lengthSize(data, offset);
+		int length = readLength(data, offset);
+		offset += lengthSize(data, offset);
+
+		int max = Math.min(length, word.length());
+		for (int i = 0; i < max; i++) {
+			char c = data[offset + i];
+			if (c != word.charAt(i)) {
+				return c - word.charAt(i);
+			}
+		}
+		return length - word.length();
+	}
+
+	/**
+	 * Writes a length as one character, or as two if it does not fit in 15
+	 * bits.
+	 *
+	 * @return the new end of the buffer
+	 */
+	private static int writeLength(char[] buffer, int offset, int value) {
+		if (value < 0x8000) {
+			buffer[offset++] = (char) value;
+		} else {
+			buffer[offset++] = (char) (0x8000 | (value >>> 16));
+			buffer[offset++] = (char) value;
+		}
+		return offset;
+	}
+
+	/**
+	 * Reads a length written by {@link #writeLength(char[], int, int)}.
+	 */
+	private static int readLength(char[] buffer, int offset) {
+		char c = buffer[offset];
+		if ((c & 0x8000) == 0) {
+			return c;
+		}
+		return ((c & 0x7FFF) << 16) | buffer[offset + 1];
+	}
+
+	/**
+	 * Returns how many characters the length at the offset takes up.
+	 */
+	private static int lengthSize(char[] buffer, int offset) {
+		return (buffer[offset] & 0x8000) == 0 ? 1 : 2;
+	}
+
+	/**
+	 * Reads the words of the dictionary one after the other, rebuilding each
+	 * word in a reused character buffer.
+	 *
+	 * @author Paul Hundal
+	 *
+	 */
+	public class Cursor {
+		private char[] word;
+		private int length;
+		private int ordinal;
+		private int offset;
+		private boolean valid;
+
+		private Cursor(int block) {
+			word = new char[32];
+			length = 0;
+			ordinal = block * BLOCK - 1;
+			offset = blocks.length > 0 ? blocks[block] : 0;
+			valid = false;
+		}
+
+		/**
+		 * Moves on to the next word.
+		 *
+		 * @return <code>true</code> if there was another word
+		 */
+		public boolean next() {
+			if (ordinal + 1 >= size) {
+				ordinal = size;
+				valid = false;
+				return false;
+			}
+
+			int shared = readLength(data, offset);
+			offset += lengthSize(data, offset);
+			int suffix = readLength(data, offset);
+			offset += lengthSize(data, offset);
+
+			if (shared + suffix > word.length) {
+				word = Arrays.copyOf(word, Math.max(word.length * 2, shared
+						+ suffix));
+			}
+			System.arraycopy(data, offset, word, shared, suffix);
+			offset += suffix;
+			length = shared + suffix;
+			ordinal++;
+			valid = true;
+			return true;
+		}
+
+		/**
+		 * Checks if the cursor is on a word.
+		 *
+		 * @return <code>true</code> if the cursor is on a word
+		 */
+		public boolean isValid() {
+			return valid;
+		}
+
+		/**
+		 * Returns the ordinal of the current word.
+		 *
+		 * @return ordinal of the current word
+		 */
+		public int getOrdinal() {
+			return ordinal;
+		}
+
+		/**
+		 * Returns the current word as a new string.
+		 *
+		 * @return the current word
+		 */
+		public String getWord() {
+			return new String(word, 0, length);
+		}
+
+		/**
+		 * Checks if the current word starts with the given prefix.
+		 *
+		 * @param prefix
+		 * @return <code>true</code> if the current word starts with the prefix
+		 */
+		public boolean startsWith(String prefix) {
+			if (prefix.length() > length) {
+				return false;
+			}
+			for (int i = 0; i < prefix.length(); i++) {
+				if (word[i] != prefix.charAt(i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Compares the current word to the given word.
+		 *
+		 * @param other
+		 * @return negative, zero or positive like
+		 *         {@link String#compareTo(String)}
+		 */
+		public int compareTo(String other) {
+			int max = Math.min(length, other.length());
+			for (int i = 0; i < max; i++) {
+				if (word[i] != other.charAt(i)) {
+					return word[i] - other.charAt(i);
+				}
+			}
+			return length - other.length();
+		}
+	}
+}
@@ -0,0 +1,104 @@
+import java.util.ArrayList;
+import java.util.TreeMap;
+
+/**
+ * The postings of the words matched by one query word, collected from several
+ * indexes or segments that share a document table. A word can be split over
+ * more than one of them, so its postings are kept as a list of parts, oldest
+ * first, until the word is scored or read as a whole.
+ *
+ * @author Paul Hundal
+ *
+ */
+public class TermParts {
+
+	private final TreeMap<String, ArrayList<TermPostings>> terms;
+
+	public TermParts() {
+		terms = new TreeMap<String, ArrayList<TermPostings>>();
+	}
+
+	/**
+	 * Adds the postings of a word found in one more index.
+	 *
+	 * @param word
+	 *            matched word
+	 * @param postings
+	 *            postings of the word in that index
+	 */
+	public void add(String word, TermPostings postings) {
+		ArrayList<TermPostings> parts = terms.get(word);
+		if (parts == null) {
+			parts = new ArrayList<TermPostings>(1);
+			terms.put(word, parts);
+		}
+		parts.add(postings);
+	}
+
+	/**
+	 * Returns the number of words collected.
+	 *
+	 * @return number of words
+	 */
+	public int size() {
+		return terms.size();
+	}
+
+	/**
+	 * Adds a match for every document of every word to the results, scoring
+	 * each word once across all of its parts.
+	 *
+	 * @param tempResults
+	 *            results to add to
+	 */
+	public void addTo(SearchAccumulator tempResults) {
+		for (ArrayList<TermPostings> parts : terms.values()) {
+			tempResults.addAll(parts);
+		}
+	}
+
+	/**
+	 * Returns the matches of every word, in sorted order of the words.
+	 *
+	 * @param scorer
+	 *            scorer of each document, or <code>null</code>
+	 * @return matches of each word
+	 */
+	public ArrayList<Matches> toMatches(Scorer scorer) {
+		ArrayList<Matches> lists = new ArrayList<Matches>(terms.size());
+		for (ArrayList<TermPostings> parts : terms.values()) {
+			lists.add(Matches.of(combine(parts), scorer));
+		}
+		return lists;
+	}
+
+	/**
+	 * Returns the postings of the given word as a whole.
+	 *
+	 * @param word
+	 * @return postings of the word, or <code>null</code> if it was not found
+	 */
+	public TermPostings getPostings(String word) {
+		ArrayList<TermPostings> parts = terms.get(word);
+		return parts != null ? combine(parts) : null;
+	}
+
+	/**
+	 * Returns the parts of a word as one postings, copying them only if the
+	 * word is split over more than one index.
+	 *
+	 * @param parts
+	 *            postings of the word, oldest first
+	 * @return combined postings
+	 */
+	private static TermPostings combine(ArrayList<TermPostings> parts) {
+		if (parts.size() == 1) {
+			return parts.get(0);
+		}
+		TermPostings combined = new TermPostings();
+		for (TermPostings postings : parts) {
+			combined.copyAll(postings);
+		}
+		return combined;
+	}
+}
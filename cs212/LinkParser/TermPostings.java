@@ -0,0 +1,233 @@
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Stores every document a single word appears in, together with the positions
+ * of the word in each of those documents. Documents are kept as integer ids in
+ * ascending order in a plain array, with the matching {@link PostingList} of
+ * positions stored at the same offset of a second array.
+ *
+ * @author Paul Hundal
+ *
+ */
+public class TermPostings {
+
+	/** The starting size of the arrays. */
+	private static final int INITIAL = 2;
+
+	private int[] documents;
+	private PostingList[] positions;
+	private int size;
+
+	public TermPostings() {
+		documents = new int[INITIAL];
+		positions = new PostingList[INITIAL];
+		size = 0;
+	}
+
+	/**
+	 * Adds a position of this word in the given document.
+	 *
+	 * @param document
+	 *            document id
+	 * @param position
+	 *            position of the word in the document
+	 */
+	public void add(int document, int position) {
+		int index = indexOf(document);
+		if (index < 0) {
+			index = -(index + 1);
+			insert(index, document, new PostingList());
+		}
+		positions[index].add(position);
+	}
+
+	/**
+	 * Adds every position of this word in a document that is not in these
+	 * postings yet. The list is shared rather than copied.
+	 *
+	 * @param document
+	 *            document id
+	 * @param list
+	 *            positions of the word in the document
+	 */
+	public void add(int document, PostingList list) {
+		int index = indexOf(document);
+		if (index >= 0) {
+			positions[index].addAll(list);
+		} else {
+			insert(-(index + 1), document, list);
+		}
+	}
+
+	/**
+	 * Adds every document and position of the other postings to this one.
+	 * Positions of a document found in both are appended to the positions
+	 * already here. Both postings must use ids from the same
+	 * {@link DocumentTable}.
+	 *
+	 * @param other
+	 *            postings to merge in
+	 */
+	public void addAll(TermPostings other) {
+		for (int i = 0; i < other.size; i++) {
+			int index = indexOf(other.documents[i]);
+			if (index < 0) {
+				insert(-(index + 1), other.documents[i], other.positions[i]);
+			} else {
+				positions[index].addAll(other.positions[i]);
+			}
+		}
+	}
+
+	/**
+	 * Adds a copy of every document and position of the other postings, so
+	 * that nothing is shared between the two afterwards.
+	 *
+	 * @param other
+	 *            postings to copy in
+	 */
+	public void copyAll(TermPostings other) {
+		for (int i = 0; i < other.size; i++) {
+			int index = indexOf(other.documents[i]);
+			if (index < 0) {
+				index = -(index + 1);
+				insert(index, other.documents[i], new PostingList());
+			}
+			positions[index].addAll(other.positions[i]);
+		}
+	}
+
+	/**
+	 * Returns new postings without the removed documents and with the added
+	 * postings merged in. These postings are left untouched, so anyone still
+	 * reading them keeps seeing the old documents. Position lists are shared
+	 * with the result, so the added postings should not hold any document
+	 * that is kept.
+	 *
+	 * @param removed
+	 *            ids of the documents to drop
+	 * @param added
+	 *            postings to merge in, or <code>null</code>
+	 * @return new postings, or these postings if nothing changed
+	 */
+	public TermPostings replace(Set<Integer> removed, TermPostings added) {
+		boolean found = false;
+		for (int document : removed) {
+			if (indexOf(document) >= 0) {
+				found = true;
+				break;
+			}
+		}
+		if (!found && added == null) {
+			return this;
+		}
+
+		TermPostings result = new TermPostings();
+		result.documents = new int[Math.max(size, INITIAL)];
+		result.positions = new PostingList[result.documents.length];
+		for (int i = 0; i < size; i++) {
+			if (!removed.contains(documents[i])) {
+				result.documents[result.size] = documents[i];
+				result.positions[result.size] = positions[i];
+				result.size++;
+			}
+		}
+		if (added != null) {
+			result.addAll(added);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the number of documents this word appears in.
+	 *
+	 * @return number of documents
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of documents holding this word that were not removed
+	 * from the table. Only if the table has removed documents are the ids
+	 * checked one by one.
+	 *
+	 * @param table
+	 *            document table of the index, or <code>null</code>
+	 * @return number of documents left
+	 */
+	public int liveSize(DocumentTable table) {
+		if (table == null || !table.hasRemoved()) {
+			return size;
+		}
+		int live = 0;
+		for (int i = 0; i < size; i++) {
+			if (!table.isRemoved(documents[i])) {
+				live++;
+			}
+		}
+		return live;
+	}
+
+	/**
+	 * Returns the document id stored at the given offset.
+	 *
+	 * @param index
+	 *            offset between 0 and {@link #size()}
+	 * @return document id
+	 */
+	public int getDocument(int index) {
+		return documents[index];
+	}
+
+	/**
+	 * Returns the positions stored at the given offset.
+	 *
+	 * @param index
+	 *            offset between 0 and {@link #size()}
+	 * @return positions of the word in that document
+	 */
+	public PostingList getPositions(int index) {
+		return positions[index];
+	}
+
+	/**
+	 * Finds the offset of a document. Documents are usually added in
+	 * ascending order, so the last document is checked before falling back on
+	 * a binary search.
+	 *
+	 * @param document
+	 *            document id
+	 * @return offset of the document, or <code>-(insertion point) - 1</code>
+	 *         if it is not here
+	 */
+	public int indexOf(int document) {
+		if (size == 0 || documents[size - 1] < document) {
+			return -(size + 1);
+		}
+		if (documents[size - 1] == document) {
+			return size - 1;
+		}
+		return Arrays.binarySearch(documents, 0, size, document);
+	}
+
+	/**
+	 * Inserts a document at the given offset, shifting the documents after it.
+	 *
+	 * @param index
+	 * @param document
+	 * @param list
+	 */
+	private void insert(int index, int document, PostingList list) {
+		if (size == documents.length) {
+			documents = Arrays.copyOf(documents, size * 2);
+			positions = Arrays.copyOf(positions, size * 2);
+		}
+		System.arraycopy(documents, index, documents, index + 1, size - index);
+		System.arraycopy(positions, index, positions, index + 1, size - index);
+		documents[index] = document;
+		positions[index] = list;
+		size++;
+	}
+}
@@ -0,0 +1,17 @@
+/**
+ * Receives the words of an index one at a time, in sorted order.
+ * 
+ * @author Paul Hundal
+ * 
+ */
+public interface TermVisitor {
+
+	/**
+	 * Called once for every word of the index.
+	 * 
+	 * @param word
+	 * @param postings
+	 *            documents and positions of the word
+	 */
+	public void visit(String word, TermPostings postings);
+}
@@ -0,0 +1,31 @@
+/**
+ * An index that can be built by {@link InvertedIndexBuilder}. Workers fill in a
+ * local {@link InvertedIndex} that shares the document table of this index,
+ * and then hand the whole local index over with {@link #addAll(InvertedIndex)}.
+ * 
+ * @author Paul Hundal
+ * 
+ */
+public interface WritableIndex extends SearchableIndex {
+
+	/**
+	 * Adds every word, file and position of a local index to this index. The
+	 * local index must use the same document table and should not be used
+	 * afterwards.
+	 * 
+	 * @param localIndex
+	 */
+	public void addAll(InvertedIndex localIndex);
+
+	/**
+	 * Called once indexing is finished to prepare the index for searching.
+	 */
+	public void seal();
+
+	/**
+	 * Writes the index to a binary {@link IndexSegment} file.
+	 * 
+	 * @param filename
+	 */
+	public void saveSegment(String filename);
+}
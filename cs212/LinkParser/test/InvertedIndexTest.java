@@ -0,0 +1,134 @@
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Checks that removing and replacing documents gives the same searches, with
+ * the same BM25 scores, and the same printed map as an index built from
+ * scratch. Run it with the index
+ * classes on the class path; it exits with a message at the first mismatch.
+ *
+ * @author Paul Hundal
+ *
+ */
+public class InvertedIndexTest {
+
+	public static void main(String[] args) throws IOException {
+		InvertedIndex index = new InvertedIndex();
+		add(index, "a.txt", "apple banana cherry");
+		add(index, "b.txt", "banana apple");
+		add(index, "c.txt", "cherry apricot");
+		index.seal();
+		score(index);
+
+		InvertedIndex local = new InvertedIndex();
+		add(local, "b.txt", "apricot date");
+		index.replaceDocument("b.txt", local);
+		index.removeDocument("c.txt");
+
+		InvertedIndex expected = new InvertedIndex();
+		add(expected, "a.txt", "apple banana cherry");
+		add(expected, "b.txt", "apricot date");
+		score(expected);
+
+		ArrayList<String> query = new ArrayList<String>(Arrays.asList("ap",
+				"banana", "cherry", "date"));
+		check("partial search after remove", results(expected
+				.partialSearch(query)), results(index.partialSearch(query)));
+		check("exact search after remove",
+				results(expected.exactSearch(query)),
+				results(index.exactSearch(query)));
+		ArrayList<String> phrase = new ArrayList<String>(Arrays.asList(
+				"\"banana", "apple\"", "cherry"));
+		check("phrase search after remove", results(BooleanQuery
+				.parse(phrase).search(expected, false, 10)),
+				results(BooleanQuery.parse(phrase).search(index, false, 10)));
+
+		index.compact();
+		check("partial search after compact", results(expected
+				.partialSearch(query)), results(index.partialSearch(query)));
+		check("printed map after compact", print(expected), print(index));
+		System.out.println("All checks passed.");
+	}
+
+	/**
+	 * Adds every word of the text to the index under the given path.
+	 *
+	 * @param index
+	 * @param path
+	 * @param text
+	 *            words separated by spaces
+	 */
+	private static void add(InvertedIndex index, String path, String text) {
+		String[] words = text.split(" ");
+		for (int i = 0; i < words.length; i++) {
+			index.addWord(words[i], path, i + 1);
+		}
+		DocumentTable documents = index.getDocuments();
+		documents.addLength(documents.getId(path), words.length);
+	}
+
+	/**
+	 * Ranks the searches of the index with BM25.
+	 *
+	 * @param index
+	 */
+	private static void score(InvertedIndex index) {
+		index.getDocuments().setScorer(
+				new BM25Scorer(index.getDocuments()));
+	}
+
+	/**
+	 * Returns the path, frequency, position and score of every result.
+	 *
+	 * @param results
+	 * @return results as text
+	 */
+	private static String results(ArrayList<SearchResults> results) {
+		StringBuilder text = new StringBuilder();
+		for (SearchResults result : results) {
+			text.append(result.getPath()).append(' ')
+					.append(result.getFrequency()).append(' ')
+					.append(result.getPosition()).append(' ')
+					.append(result.getScore()).append('\n');
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Prints the map of the index to a temporary file and reads it back.
+	 *
+	 * @param index
+	 * @return printed map
+	 * @throws IOException
+	 */
+	private static String print(InvertedIndex index) throws IOException {
+		Path file = Files.createTempFile("index", ".txt");
+		try {
+			index.printMap(file.toString());
+			return new String(Files.readAllBytes(file),
+					Charset.forName("UTF-8"));
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	/**
+	 * Stops with a message if the actual value is not the expected one.
+	 *
+	 * @param name
+	 *            what is being checked
+	 * @param expected
+	 * @param actual
+	 */
+	private static void check(String name, String expected, String actual) {
+		if (!expected.equals(actual)) {
+			System.out.println("Failed " + name + ":\nexpected\n" + expected
+					+ "but was\n" + actual);
+			System.exit(1);
+		}
+	}
+}